@@ -0,0 +1,408 @@
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ * FlickGolfBenchmark measures the hot paths of the game headless.
+ *
+ * Covers the broad phase (Map.getPossibleLines), the physics step (PhysicsEngine.step, which runs the
+ * checkLines/checkCircles narrow phase), many balls colliding (BallCollider), moving obstacles, Map.loadLevel for CSV (cold and with the TileRegistry warm) and compiled levels, Map.draw and the cached LevelBackground with
+ * representative scenarios.
+ * For each scenario it reports throughput, latency percentiles, allocation rate and GC activity.
+ * Scenarios slower than SINGLE_OP_NANOS per operation are timed one operation at a time, so their
+ * percentiles are per-operation latencies. Faster ones are timed in batches to keep the timer's
+ * overhead out, so their percentiles are of batch means, which smooth the tails away; the
+ * "ops/sample" column tells which.
+ *
+ * Usage: java -Djava.awt.headless=true -cp bin FlickGolfBenchmark [seconds per scenario] [scenario name filter]
+ */
+public class FlickGolfBenchmark {
+
+	private static String LEVEL = "Assets/level1.csv";
+	//Aim for samples of roughly this many nanoseconds so timer overhead is negligible.
+	private static long SAMPLE_NANOS = 20000;
+	//Operations at least this slow are timed one by one, the timer's overhead being negligible.
+	private static long SINGLE_OP_NANOS = 1000;
+	private static double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+
+	//Results of every operation end up here so the JIT cannot remove the work.
+	private static volatile double blackhole;
+
+	/*
+	 * One measured operation with the state it needs.
+	 */
+	private static abstract class Scenario {
+		private String name;
+
+		Scenario(String name) {
+			this.name = name;
+		}
+
+		/*
+		 * Called once before warm up.
+		 */
+		void setup() {
+		}
+
+		/*
+		 * The operation being measured. Returns a value so the work cannot be optimised away.
+		 */
+		abstract double op();
+	}
+
+	/*
+	 * Scenario stepping a single ball from the same state on every operation.
+	 */
+	private static class PhysicsScenario extends Scenario {
+		protected Map map;
+		protected Ball ball;
+		protected PhysicsEngine engine;
+		private double x, y, velX, velY;
+		private int steps;
+
+		PhysicsScenario(String name, Map map, double x, double y, double velX, double velY, int steps) {
+			super(name);
+			this.map = map;
+			this.x = x;
+			this.y = y;
+			this.velX = velX;
+			this.velY = velY;
+			this.steps = steps;
+		}
+
+		void setup() {
+			ball = new Ball(new Point((int) x, (int) y), Map.BALL_RADIUS);
+			engine = new PhysicsEngine(map, ball);
+			//Without friction every operation simulates the same number of moving steps.
+			engine.setFriction(0, 0);
+		}
+
+		double op() {
+			ball.setCenter(x, y);
+			ball.setVelocity(velX, velY);
+			for (int i=0; i<steps; i++) {
+				engine.step(1.0);
+			}
+			return ball.getCircle().getX();
+		}
+	}
+
+	private static class Result {
+		String name;
+		double opsPerSec;
+		int batch;
+		double[] percentiles;
+		double bytesPerOp;
+		double mbPerSec;
+		long gcCount;
+		long gcMillis;
+	}
+
+	public static void main(String[] args) {
+		double seconds = (args.length > 0) ? Double.parseDouble(args[0]) : 3;
+		String filter = (args.length > 1) ? args[1] : null;
+
+		final Map map = new Map();
+		map.loadLevel(LEVEL);
+
+		ArrayList<Scenario> scenarios = new ArrayList<Scenario>();
+		scenarios.add(new PhysicsScenario("step.rest", map, 488, 328, 0, 0, 1));
+		//Rolling across open ground, far enough from the walls to skip collision detection.
+		scenarios.add(new PhysicsScenario("step.open", map, 488, 328, 3, -2, 1));
+		//Shallow approach to the left wall of the middle course, hits within the step.
+		scenarios.add(new PhysicsScenario("step.glancing", map, 346.3, 260, -0.5, 4.0, 1));
+		//Straight at the outside corner between a diagonal and a horizontal wall, hits the endpoint cap.
+		scenarios.add(new PhysicsScenario("step.corner", map, 378.453, 137.679, 1.664, 2.496, 1));
+		//Hard flick across the course, several bounces per step.
+		scenarios.add(new PhysicsScenario("step.multibounce", map, 488, 328, 37, -23, 10));
+		scenarios.add(new PhysicsScenario("broadphase.fast", map, 488, 328, 37, -23, 0) {
+			private TileQuery query = new TileQuery();
+
+			double op() {
+				super.op();
+				map.getGeometry().getPossibleLines(ball, 1.0, query);
+				return query.size();
+			}
+		});
+		//Party of balls bouncing around the middle course and off each other without friction, one tick per operation.
+		for (final int balls : new int[] {16, 256}) {
+			scenarios.add(new Scenario("balls.step" + balls) {
+				private BallCollider collider;
+
+				void setup() {
+					Random random = new Random(1);
+					PhysicsEngine[] engines = new PhysicsEngine[balls];
+					for (int i=0; i<balls; i++) {
+						Ball ball = new Ball(new Point(0, 0), Map.BALL_RADIUS);
+						ball.setCenter(360 + random.nextDouble()*240, 160 + random.nextDouble()*220);
+						ball.setVelocity(random.nextDouble()*4-2, random.nextDouble()*4-2);
+						engines[i] = new PhysicsEngine(map, ball);
+						engines[i].setFriction(0, 0);
+					}
+					collider = new BallCollider(engines);
+				}
+
+				double op() {
+					collider.step();
+					return collider.getBalls()[0].getCircle().getX();
+				}
+			});
+		}
+		//Windmills and sliding gates over the whole level with balls rolling between them, one tick per operation.
+		scenarios.add(new Scenario("obstacles.step64") {
+			private ObstacleSet obstacles;
+			private PhysicsEngine[] engines;
+
+			void setup() {
+				Random random = new Random(1);
+				Obstacle[] moving = new Obstacle[64];
+				for (int i=0; i<moving.length; i++) {
+					double x = 60 + (i % 8)*120;
+					double y = 40 + (i / 8)*80;
+					String line = (i % 2 == 0) ? "blades," + x + "," + y + ",30,4," + (60 + i)
+							: "gate," + (x-20) + "," + y + "," + (x+20) + "," + y + ",0,30," + (90 + i);
+					moving[i] = Obstacle.parse(line.split(","));
+				}
+				obstacles = new ObstacleSet(moving, 0);
+				engines = new PhysicsEngine[64];
+				for (int i=0; i<engines.length; i++) {
+					Ball ball = new Ball(new Point(0, 0), Map.BALL_RADIUS);
+					ball.setCenter(360 + random.nextDouble()*240, 160 + random.nextDouble()*220);
+					ball.setVelocity(random.nextDouble()*4-2, random.nextDouble()*4-2);
+					engines[i] = new PhysicsEngine(map.getGeometry(), ball);
+					engines[i].setFriction(0, 0);
+					engines[i].setObstacles(obstacles);
+				}
+			}
+
+			double op() {
+				for (PhysicsEngine engine : engines) {
+					engine.step(1.0);
+				}
+				obstacles.advance();
+				return engines[0].getBall().getCircle().getX();
+			}
+		});
+		//Parses the mapping file again first, as a level loaded first in the process does.
+		scenarios.add(new Scenario("map.loadLevel.cold") {
+			private Map coldMap;
+			private File mapping;
+
+			void setup() {
+				coldMap = new Map();
+				try {
+					mapping = File.createTempFile("mapping", ".csv");
+					mapping.deleteOnExit();
+					InputStream in = FlickGolfBenchmark.class.getClassLoader().getResourceAsStream("Assets/mapping.csv");
+					try {
+						Files.copy(in, mapping.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					} finally {
+						in.close();
+					}
+				} catch (IOException e) {
+					System.out.println("Failed to copy mapping.");
+					e.printStackTrace();
+				}
+			}
+
+			double op() {
+				try {
+					TileRegistry.reload(mapping);
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+				coldMap.loadLevel(LEVEL);
+				return coldMap.getGeometry().getSegmentCount();
+			}
+		});
+		//Reuses the process-wide TileRegistry, as every later level does.
+		scenarios.add(new Scenario("map.loadLevel.warm") {
+			private Map warmMap;
+
+			void setup() {
+				warmMap = new Map();
+			}
+
+			double op() {
+				warmMap.loadLevel(LEVEL);
+				return warmMap.getGeometry().getSegmentCount();
+			}
+		});
+		scenarios.add(new Scenario("map.loadCompiled") {
+			private Map coldMap;
+			private String compiled;
+
+			void setup() {
+				coldMap = new Map();
+				try {
+					File dir = Files.createTempDirectory("levels").toFile();
+					compiled = LevelCompiler.compile(LEVEL, dir).getPath();
+				} catch (IOException e) {
+					System.out.println("Failed to compile level.");
+					e.printStackTrace();
+				}
+			}
+
+			double op() {
+				coldMap.loadLevel(compiled);
+				return coldMap.getGeometry().getSegmentCount();
+			}
+		});
+		scenarios.add(new Scenario("map.draw") {
+			private BufferedImage background;
+
+			void setup() {
+				background = new BufferedImage(Map.WIDTH,Map.HEIGHT,BufferedImage.TYPE_INT_ARGB);
+			}
+
+			double op() {
+				Graphics g = background.getGraphics();
+				map.draw(g);
+				g.dispose();
+				return background.getRGB(0, 0);
+			}
+		});
+
+		scenarios.add(new Scenario("background.draw") {
+			private LevelBackground background;
+			private BufferedImage frame;
+
+			void setup() {
+				background = new LevelBackground(map);
+				frame = new BufferedImage(Map.WIDTH,Map.HEIGHT,BufferedImage.TYPE_INT_ARGB);
+			}
+
+			double op() {
+				Graphics g = frame.getGraphics();
+				background.draw(g, null);
+				g.dispose();
+				return frame.getRGB(0, 0);
+			}
+		});
+
+		System.out.println("narrow phase kernel: " + PhysicsEngine.getKernelName());
+		System.out.printf("%-18s %14s %10s %10s %10s %10s %10s %12s %10s %6s %8s%n",
+				"scenario", "ops/s", "ops/sample", "p50 ns", "p90 ns", "p99 ns", "p99.9 ns", "B/op", "MB/s", "gc", "gc ms");
+		for (Scenario s : scenarios) {
+			if (filter != null && !s.name.contains(filter)) {
+				continue;
+			}
+			Result r = run(s, seconds);
+			System.out.printf("%-18s %14.1f %10d %10.0f %10.0f %10.0f %10.0f %12.1f %10.1f %6d %8d%n",
+					r.name, r.opsPerSec, r.batch, r.percentiles[0], r.percentiles[1], r.percentiles[2], r.percentiles[3],
+					r.bytesPerOp, r.mbPerSec, r.gcCount, r.gcMillis);
+		}
+	}
+
+	/*
+	 * Warms up and measures a scenario.
+	 *
+	 * @param	s		Scenario to run.
+	 * @param	seconds	Measurement time, warm up takes a third of it.
+	 *
+	 * @return	Measured results.
+	 */
+	private static Result run(Scenario s, double seconds) {
+		double sink = 0;
+		s.setup();
+
+		//Warm up and calibrate how many operations make one sample.
+		long warmupEnd = System.nanoTime() + (long) (seconds*1E9/3);
+		int batch = 1;
+		double nanosPerOp = 0;
+		while (System.nanoTime() < warmupEnd) {
+			long t0 = System.nanoTime();
+			for (int i=0; i<batch; i++) {
+				sink += s.op();
+			}
+			long elapsed = System.nanoTime() - t0;
+			nanosPerOp = (double) elapsed / batch;
+			if (elapsed < SAMPLE_NANOS && batch < (1 << 20)) {
+				batch *= 2;
+			}
+		}
+		if (nanosPerOp >= SINGLE_OP_NANOS) {
+			batch = 1;
+		}
+
+		//Sized up front, so growing it is not counted as allocated by the scenario.
+		long[] samples = new long[(int) Math.min(1 << 24, seconds*1E9/Math.max(1, nanosPerOp*batch)*2 + 1024)];
+		int sampleCount = 0;
+		long ops = 0;
+		long gcCount0 = gcCount();
+		long gcMillis0 = gcMillis();
+		long alloc0 = allocatedBytes();
+		long start = System.nanoTime();
+		long end = start + (long) (seconds*1E9);
+		long now = start;
+		while (now < end) {
+			for (int i=0; i<batch; i++) {
+				sink += s.op();
+			}
+			long t = System.nanoTime();
+			if (sampleCount == samples.length) {
+				samples = Arrays.copyOf(samples, sampleCount*2);
+			}
+			samples[sampleCount++] = t - now;
+			ops += batch;
+			now = t;
+		}
+		long alloc = allocatedBytes() - alloc0;
+		double elapsed = (now - start) / 1E9;
+
+		Result r = new Result();
+		r.name = s.name;
+		r.opsPerSec = ops / elapsed;
+		r.batch = batch;
+		Arrays.sort(samples, 0, sampleCount);
+		r.percentiles = new double[PERCENTILES.length];
+		for (int i=0; i<PERCENTILES.length; i++) {
+			int index = Math.min(sampleCount-1, (int) (PERCENTILES[i]*sampleCount));
+			r.percentiles[i] = (double) samples[index] / batch;
+		}
+		r.bytesPerOp = (alloc >= 0) ? (double) alloc / ops : Double.NaN;
+		r.mbPerSec = (alloc >= 0) ? alloc / elapsed / (1024*1024) : Double.NaN;
+		r.gcCount = gcCount() - gcCount0;
+		r.gcMillis = gcMillis() - gcMillis0;
+
+		blackhole = sink;
+		return r;
+	}
+
+	/*
+	 * @return	Bytes allocated so far by the current thread, -1 if the JVM cannot tell.
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis;
+	}
+}
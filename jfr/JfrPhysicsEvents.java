@@ -0,0 +1,138 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.Timespan;
+
+/*
+ * JfrPhysicsEvents reports the game's physics to the Flight Recorder.
+ *
+ * Kept in its own source folder because jdk.jfr needs Java 11, while the game builds on Java 8.
+ * Compile it onto the game's classpath to enable the events, e.g.
+ * javac -cp bin -d bin jfr/JfrPhysicsEvents.java
+ * PhysicsTelemetry then loads it and turns itself on while a recording is running:
+ * java -XX:StartFlightRecording=filename=physics.jfr -cp bin FlickGolf
+ */
+public class JfrPhysicsEvents implements PhysicsEvents {
+
+	@Name("flickgolf.PhysicsTick")
+	@Label("Physics Tick")
+	@Category({"FlickGolf", "Physics"})
+	@Description("One step of a PhysicsEngine")
+	static class TickEvent extends Event {
+		@Label("Tick Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long tickTime;
+		@Label("Sub-steps")
+		int subSteps;
+		@Label("Candidate Lines")
+		int candidateLines;
+		@Label("Narrow Phase Tests")
+		int narrowPhaseTests;
+		@Label("Collisions")
+		int collisions;
+	}
+
+	@Name("flickgolf.Collision")
+	@Label("Collision")
+	@Category({"FlickGolf", "Physics"})
+	@Description("Collision resolved by a PhysicsEngine")
+	static class CollisionEvent extends Event {
+		@Label("X")
+		double x;
+		@Label("Y")
+		double y;
+		@Label("Velocity X")
+		double velX;
+		@Label("Velocity Y")
+		double velY;
+		@Label("New Velocity X")
+		double newVelX;
+		@Label("New Velocity Y")
+		double newVelY;
+		@Label("Walls")
+		int walls;
+	}
+
+	@Name("flickgolf.LevelLoad")
+	@Label("Level Load")
+	@Category({"FlickGolf", "Map"})
+	@Description("Level loaded by a Map")
+	static class LevelLoadEvent extends Event {
+		@Label("Level")
+		String levelName;
+		@Label("Load Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long loadTime;
+		@Label("Tiles")
+		int tiles;
+		@Label("Segments")
+		int segments;
+	}
+
+	public JfrPhysicsEvents() {
+		FlightRecorder.addListener(new FlightRecorderListener() {
+			public void recordingStateChanged(Recording recording) {
+				PhysicsTelemetry.setRecording(isRecording());
+			}
+		});
+		PhysicsTelemetry.setRecording(isRecording());
+	}
+
+	/*
+	 * @return	Whether any recording is running.
+	 */
+	private static boolean isRecording() {
+		if (!FlightRecorder.isInitialized()) {
+			return false;
+		}
+		for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+			if (recording.getState() == RecordingState.RUNNING) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public void tick(long nanos, int subSteps, int candidateLines, int narrowPhaseTests, int collisions) {
+		TickEvent event = new TickEvent();
+		if (event.shouldCommit()) {
+			event.tickTime = nanos;
+			event.subSteps = subSteps;
+			event.candidateLines = candidateLines;
+			event.narrowPhaseTests = narrowPhaseTests;
+			event.collisions = collisions;
+			event.commit();
+		}
+	}
+
+	public void collision(double x, double y, double velX, double velY, double newVelX, double newVelY, int walls) {
+		CollisionEvent event = new CollisionEvent();
+		if (event.shouldCommit()) {
+			event.x = x;
+			event.y = y;
+			event.velX = velX;
+			event.velY = velY;
+			event.newVelX = newVelX;
+			event.newVelY = newVelY;
+			event.walls = walls;
+			event.commit();
+		}
+	}
+
+	public void levelLoad(String levelName, long nanos, int tiles, int segments) {
+		LevelLoadEvent event = new LevelLoadEvent();
+		if (event.shouldCommit()) {
+			event.levelName = levelName;
+			event.loadTime = nanos;
+			event.tiles = tiles;
+			event.segments = segments;
+			event.commit();
+		}
+	}
+}
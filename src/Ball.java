@@ -8,15 +8,19 @@ import java.awt.geom.Point2D;
 public class Ball {
 	
 	private Ellipse2D.Double circle;
+	private Ellipse2D.Double drawCircle;
 	
 	//Velocity stored as change in x and y position per instance.
 	private Point2D velocity;
 	private int radius;
+	private Color color;
 	
 	public Ball(Point center, int rad) {
 		radius = rad;
 		circle = new Ellipse2D.Double(center.getX()-radius, center.getY()-radius, radius*2, radius*2);
 		velocity = new Point2D.Double(0,0);
+		drawCircle = new Ellipse2D.Double();
+		color = Color.gray;
 	}
 	
 	public void move(double dX, double dY) {
@@ -24,7 +28,7 @@ public class Ball {
 	}
 	
 	public void setCenter(double x, double y) {
-		circle = new Ellipse2D.Double(x-radius, y-radius, radius*2, radius*2);
+		circle.setFrame(x-radius, y-radius, radius*2, radius*2);
 	}
 	
 	public Ellipse2D.Double getCircle() {
@@ -47,9 +51,31 @@ public class Ball {
 		velocity.setLocation(x, y);
 	}
 	
+	/*
+	 * @return	Whether the ball is not moving at all.
+	 */
+	public boolean isAtRest() {
+		return velocity.getX() == 0 && velocity.getY() == 0;
+	}
+	
+	public void setColor(Color color) {
+		this.color = color;
+	}
+	
 	public void draw(Graphics g) {
 		Graphics2D g2d = (Graphics2D) g;
-		g.setColor(Color.gray);
+		g.setColor(color);
 		g2d.fill(circle);
 	}
+	
+	/*
+	 * Draws the ball centered at the given position instead of its own,
+	 * e.g. when interpolating between physics ticks.
+	 */
+	public void draw(Graphics g, double centerX, double centerY) {
+		Graphics2D g2d = (Graphics2D) g;
+		drawCircle.setFrame(centerX-radius, centerY-radius, radius*2, radius*2);
+		g.setColor(color);
+		g2d.fill(drawCircle);
+	}
 }
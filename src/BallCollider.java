@@ -0,0 +1,222 @@
+/*
+ * BallCollider steps several balls through a level together and lets them collide with each other.
+ *
+ * Every ball is first stepped against the walls by its own PhysicsEngine. The boxes swept by the
+ * balls along the straight paths they ended the tick on, after any wall bounce, are then kept
+ * sorted along x (sweep and prune); since balls move little per tick the order barely changes,
+ * so an insertion sort keeps it sorted in close to linear time and only pairs overlapping on
+ * both axes are tested. A pair that touched on those paths is moved back to the moment of
+ * contact with the velocities it had then, bounces elastically (masses proportional to the
+ * radius squared) and is stepped against the walls again for the rest of the tick, losing the
+ * tick's friction once.
+ * A contact before a wall bounce is only found if the balls still touch where their paths
+ * start, and is resolved from there. Each ball bounces off at most one other ball per tick; any further contact is
+ * resolved on the next tick, when the balls are already touching.
+ */
+public class BallCollider {
+
+	//Share of the approaching speed kept by a ball to ball bounce, 1 for perfectly elastic.
+	public static double RESTITUTION = 1;
+
+	private PhysicsEngine[] engines;
+	private Ball[] balls;
+	private int count;
+
+	//Boxes swept by the balls along the paths they ended the tick on.
+	private double[] minX, maxX, minY, maxY;
+	//Ball indices sorted by minX, kept from tick to tick.
+	private int[] order;
+	//Whether each ball already bounced off another ball this tick.
+	private boolean[] hit;
+
+	//Statistics since the last reset.
+	private long pairTests;
+	private long collisions;
+
+	/*
+	 * Constructor for BallCollider object.
+	 *
+	 * @param	engines		Engine of every ball, each simulating a different ball.
+	 */
+	public BallCollider(PhysicsEngine[] engines) {
+		this.engines = engines;
+		count = engines.length;
+		balls = new Ball[count];
+		order = new int[count];
+		for (int i=0; i<count; i++) {
+			balls[i] = engines[i].getBall();
+			order[i] = i;
+		}
+		minX = new double[count];
+		maxX = new double[count];
+		minY = new double[count];
+		maxY = new double[count];
+		hit = new boolean[count];
+	}
+
+	/*
+	 * Advances every ball by one fixed time step, against the walls and each other.
+	 */
+	public void step() {
+		for (int i=0; i<count; i++) {
+			engines[i].step(1.0);
+		}
+		if (count > 1) {
+			collideBalls();
+		}
+	}
+
+	/*
+	 * Helper method for step method.
+	 * Sweep and prune over the boxes swept by the balls, testing the pairs that overlap.
+	 */
+	private void collideBalls() {
+		double x, y, pathX, pathY, r;
+		for (int i=0; i<count; i++) {
+			x = balls[i].getCircle().getCenterX();
+			y = balls[i].getCircle().getCenterY();
+			pathX = engines[i].getPathX();
+			pathY = engines[i].getPathY();
+			r = balls[i].getRadius();
+			minX[i] = Math.min(pathX, x) - r;
+			maxX[i] = Math.max(pathX, x) + r;
+			minY[i] = Math.min(pathY, y) - r;
+			maxY[i] = Math.max(pathY, y) + r;
+			hit[i] = false;
+		}
+
+		//Nearly sorted from the last tick, so insertion sort is close to linear.
+		int ball, j;
+		for (int i=1; i<count; i++) {
+			ball = order[i];
+			for (j=i; j>0 && minX[order[j-1]] > minX[ball]; j--) {
+				order[j] = order[j-1];
+			}
+			order[j] = ball;
+		}
+
+		int a, b;
+		for (int i=0; i<count; i++) {
+			a = order[i];
+			for (j=i+1; j<count && minX[order[j]] <= maxX[a]; j++) {
+				b = order[j];
+				if (minY[b] <= maxY[a] && maxY[b] >= minY[a]) {
+					pairTests++;
+					collide(a, b);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Helper method for collideBalls method.
+	 * Finds when two balls first touched on the straight paths they ended the tick on, from the
+	 * later of the times they started on them, and bounces them off each other from there if
+	 * they approach.
+	 *
+	 * @param	a, b	Indices of the balls.
+	 */
+	private void collide(int a, int b) {
+		if (hit[a] || hit[b]) {
+			return;
+		}
+		Ball ballA = balls[a];
+		Ball ballB = balls[b];
+		PhysicsEngine engineA = engines[a];
+		PhysicsEngine engineB = engines[b];
+		double velAX = engineA.getPathVelX();
+		double velAY = engineA.getPathVelY();
+		double velBX = engineB.getPathVelX();
+		double velBY = engineB.getPathVelY();
+		//Both balls are on their paths from start on.
+		double start = Math.max(engineA.getPathTime(), engineB.getPathTime());
+		double startAX = engineA.getPathX() + (start - engineA.getPathTime())*velAX;
+		double startAY = engineA.getPathY() + (start - engineA.getPathTime())*velAY;
+		double startBX = engineB.getPathX() + (start - engineB.getPathTime())*velBX;
+		double startBY = engineB.getPathY() + (start - engineB.getPathTime())*velBY;
+		double reach = ballA.getRadius() + ballB.getRadius();
+
+		//Solve |p + t*d| = reach for the first t in [start,1], p and d relative to ball b.
+		double pX = startAX - startBX;
+		double pY = startAY - startBY;
+		double dX = velAX - velBX;
+		double dY = velAY - velBY;
+		double c = (pX*pX)+(pY*pY)-(reach*reach);
+		double t;
+		if (c <= 0) {
+			//Already touching when both paths start.
+			t = 0;
+		} else {
+			double a2 = (dX*dX)+(dY*dY);
+			double b2 = (pX*dX)+(pY*dY);
+			if (a2 == 0 || b2 >= 0) {
+				return;
+			}
+			double det = (b2*b2)-(a2*c);
+			if (det < 0) {
+				return;
+			}
+			t = (-b2-Math.sqrt(det))/a2;
+			if (start + t > 1) {
+				return;
+			}
+		}
+
+		double contactAX = startAX + t*velAX;
+		double contactAY = startAY + t*velAY;
+		double contactBX = startBX + t*velBX;
+		double contactBY = startBY + t*velBY;
+		double nX = contactAX - contactBX;
+		double nY = contactAY - contactBY;
+		double len = Math.sqrt((nX*nX)+(nY*nY));
+		if (len == 0) {
+			return;
+		}
+		nX /= len;
+		nY /= len;
+
+		double approach = ((velAX-velBX)*nX)+((velAY-velBY)*nY);
+		if (approach >= 0) {
+			//Moving apart already.
+			return;
+		}
+		double massA = ballA.getRadius()*ballA.getRadius();
+		double massB = ballB.getRadius()*ballB.getRadius();
+		double impulse = -(1+RESTITUTION)*approach/((1/massA)+(1/massB));
+
+		t += start;
+		ballA.setCenter(contactAX, contactAY);
+		ballB.setCenter(contactBX, contactBY);
+		ballA.setVelocity(velAX+(impulse/massA)*nX, velAY+(impulse/massA)*nY);
+		ballB.setVelocity(velBX-(impulse/massB)*nX, velBY-(impulse/massB)*nY);
+		//The velocities are from before friction, which is applied once for the whole tick.
+		engineA.step(1-t, 1.0);
+		engineB.step(1-t, 1.0);
+		hit[a] = true;
+		hit[b] = true;
+		collisions++;
+	}
+
+	public Ball[] getBalls() {
+		return balls;
+	}
+
+	/*
+	 * @return	Ball pairs whose swept boxes overlapped, since the last reset.
+	 */
+	public long getPairTests() {
+		return pairTests;
+	}
+
+	/*
+	 * @return	Ball to ball bounces, since the last reset.
+	 */
+	public long getCollisions() {
+		return collisions;
+	}
+
+	public void resetStatistics() {
+		pairTests = 0;
+		collisions = 0;
+	}
+}
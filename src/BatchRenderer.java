@@ -0,0 +1,331 @@
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+/*
+ * BatchRenderer draws level thumbnails and the frames of recorded games to PNG files, headless
+ * and on every core.
+ *
+ * Each level or recording is one job for a pool of workers, one per core by default. A worker
+ * draws into its own offscreen image with Map.draw and Ball.draw (through FlickGolf.render for
+ * recordings), every map sharing the tile images of the TileRegistry, and encodes the PNG itself.
+ * Encoded frames go through a bounded queue to a single writer thread, so a worker ahead of the
+ * disk waits instead of piling up frames: memory stays the same however long the recordings are.
+ *
+ * Usage: java -Djava.awt.headless=true BatchRenderer [-o dir] [-t threads] [-every ticks] (level | log file | directory of logs)...
+ * 	Levels are named as for FlickGolf and drawn to dir/thumbs/<level>.png; logs written by
+ * 	InputRecorder are replayed and drawn to dir/<log>/frame-00000.png every few ticks.
+ * Exits with status 1 if anything failed.
+ */
+public class BatchRenderer {
+
+	//Size of level thumbnails, in pixels.
+	public static int THUMB_WIDTH = 240;
+	public static int THUMB_HEIGHT = 160;
+	//Encoded frames waiting for the writer, per worker.
+	public static int QUEUE_PER_WORKER = 2;
+
+	/*
+	 * Encoded image and the file it goes to.
+	 */
+	private static class Frame {
+		File file;
+		byte[] png;
+
+		Frame(File file, byte[] png) {
+			this.file = file;
+			this.png = png;
+		}
+	}
+	//Tells the writer that no more frames are coming.
+	private static final Frame END = new Frame(null, null);
+
+	private File outDir;
+	private int every;
+	private ExecutorService workers;
+	private BlockingQueue<Frame> queue;
+	private Thread writer;
+	private AtomicInteger written = new AtomicInteger();
+	private AtomicInteger writeFailures = new AtomicInteger();
+
+	/*
+	 * Constructor for BatchRenderer object.
+	 * Starts the workers and the writer, which run until close.
+	 *
+	 * @param	outDir		Directory the images are written under.
+	 * @param	threads		Number of workers.
+	 * @param	every		Ticks between two frames of a recording.
+	 */
+	public BatchRenderer(File outDir, int threads, int every) {
+		this.outDir = outDir;
+		this.every = every;
+		//Encoded in memory, no need for temporary files.
+		ImageIO.setUseCache(false);
+		queue = new ArrayBlockingQueue<Frame>(threads*QUEUE_PER_WORKER);
+		workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "batch-renderer-" + count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		writer = new Thread(new Runnable() {
+			public void run() {
+				write();
+			}
+		}, "batch-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/*
+	 * Queues the thumbnail of a level: the level, its moving obstacles and the ball at the start.
+	 *
+	 * @param	levelName	Name of level to draw (CSV or compiled .lvl file)
+	 *
+	 * @return	Number of images queued, once the job is done.
+	 */
+	public Future<Integer> renderThumbnail(final String levelName) {
+		return workers.submit(new Callable<Integer>() {
+			public Integer call() throws IOException {
+				Map map = new Map();
+				if (!map.loadLevel(levelName)) {
+					throw new IOException("Failed to load level: " + levelName);
+				}
+				BufferedImage image = new BufferedImage(Map.WIDTH, Map.HEIGHT, BufferedImage.TYPE_INT_ARGB);
+				Graphics2D g = image.createGraphics();
+				map.draw(g);
+				map.drawObstacles(g, 1.0);
+				Point start = map.getStart();
+				int r = Map.BALL_RADIUS;
+				new Ball(new Point(start.x*Map.TILESIZE + r, start.y*Map.TILESIZE + r), r).draw(g);
+				g.dispose();
+				queue(new File(new File(outDir, "thumbs"), getBaseName(levelName) + ".png"), scale(image, THUMB_WIDTH, THUMB_HEIGHT));
+				return 1;
+			}
+		});
+	}
+
+	/*
+	 * Queues the frames of a recorded game, replaying it tick by tick as InputReplay does.
+	 *
+	 * @param	log		Log written by InputRecorder.
+	 *
+	 * @return	Number of frames queued, once the job is done; fails if the replay differs from
+	 *			the recording, after queueing the frames up to there.
+	 */
+	public Future<Integer> renderReplay(final File log) {
+		return workers.submit(new Callable<Integer>() {
+			public Integer call() throws IOException {
+				final File dir = new File(outDir, getBaseName(log.getName()));
+				final BufferedImage image = new BufferedImage(Map.WIDTH, Map.HEIGHT, BufferedImage.TYPE_INT_ARGB);
+				final int[] frames = new int[1];
+				InputReplay replay = new InputReplay(log) {
+					protected void tickDone(FlickGolf game) throws IOException {
+						if (game.getTick() % every != 0) {
+							return;
+						}
+						Graphics2D g = image.createGraphics();
+						g.setColor(game.getBackground());
+						g.fillRect(0, 0, Map.WIDTH, Map.HEIGHT);
+						game.render(g, null, 1.0);
+						g.dispose();
+						queue(new File(dir, String.format("frame-%05d.png", frames[0]++)), image);
+					}
+				};
+				if (!replay.run()) {
+					throw new IOException("Replay differs from the recording at tick " + replay.getMismatchTick() + ": " + log);
+				}
+				return frames[0];
+			}
+		});
+	}
+
+	/*
+	 * Helper method for the render methods.
+	 * Encodes an image and hands it to the writer, waiting while the queue is full.
+	 */
+	private void queue(File file, BufferedImage image) throws IOException {
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", png);
+		try {
+			queue.put(new Frame(file, png.toByteArray()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while queueing " + file);
+		}
+	}
+
+	/*
+	 * Helper method for renderThumbnail method.
+	 * Shrinks an image by halves, so every pixel of the original counts, then to the exact size.
+	 */
+	private static BufferedImage scale(BufferedImage image, int width, int height) {
+		int w = image.getWidth();
+		int h = image.getHeight();
+		do {
+			w = Math.max(width, w/2);
+			h = Math.max(height, h/2);
+			BufferedImage smaller = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = smaller.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.drawImage(image, 0, 0, w, h, null);
+			g.dispose();
+			image = smaller;
+		} while (w != width || h != height);
+		return image;
+	}
+
+	/*
+	 * @return	File name without its directory or extension.
+	 */
+	private static String getBaseName(String path) {
+		String name = new File(path).getName();
+		int dot = name.lastIndexOf('.');
+		return (dot > 0) ? name.substring(0, dot) : name;
+	}
+
+	/*
+	 * Writes queued frames until told that no more are coming. Runs on the writer thread.
+	 */
+	private void write() {
+		while (true) {
+			Frame frame;
+			try {
+				frame = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (frame == END) {
+				return;
+			}
+			try {
+				frame.file.getParentFile().mkdirs();
+				OutputStream out = new FileOutputStream(frame.file);
+				try {
+					out.write(frame.png);
+				} finally {
+					out.close();
+				}
+				written.incrementAndGet();
+			} catch (IOException e) {
+				writeFailures.incrementAndGet();
+				System.out.println("Failed to write " + frame.file);
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/*
+	 * Waits for every queued job, then for the writer to write every frame, and stops.
+	 */
+	public void close() throws InterruptedException {
+		workers.shutdown();
+		workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		queue.put(END);
+		writer.join();
+	}
+
+	/*
+	 * @return	Number of images written to disk.
+	 */
+	public int getWrittenCount() {
+		return written.get();
+	}
+
+	/*
+	 * @return	Number of images that failed to be written.
+	 */
+	public int getWriteFailures() {
+		return writeFailures.get();
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		File outDir = new File("render");
+		int threads = Runtime.getRuntime().availableProcessors();
+		int every = 2;
+		ArrayList<String> levels = new ArrayList<String>();
+		ArrayList<File> logs = new ArrayList<File>();
+		for (int i=0; i<args.length; i++) {
+			if (args[i].equals("-o") && i+1 < args.length) {
+				outDir = new File(args[++i]);
+			} else if (args[i].equals("-t") && i+1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-every") && i+1 < args.length) {
+				every = Integer.parseInt(args[++i]);
+			} else {
+				File file = new File(args[i]);
+				File[] found = file.listFiles();
+				if (found != null) {
+					Arrays.sort(found);
+					for (File log : found) {
+						if (log.getName().endsWith(InputRecorder.EXTENSION)) {
+							logs.add(log);
+						}
+					}
+				} else if (args[i].endsWith(InputRecorder.EXTENSION)) {
+					logs.add(file);
+				} else {
+					levels.add(args[i]);
+				}
+			}
+		}
+		if (levels.isEmpty() && logs.isEmpty()) {
+			System.out.println("Usage: BatchRenderer [-o dir] [-t threads] [-every ticks] (level | log file | directory of logs)...");
+			System.exit(1);
+		}
+
+		long start = System.nanoTime();
+		BatchRenderer renderer = new BatchRenderer(outDir, threads, every);
+		ArrayList<String> names = new ArrayList<String>();
+		ArrayList<Future<Integer>> jobs = new ArrayList<Future<Integer>>();
+		for (String level : levels) {
+			names.add(level);
+			jobs.add(renderer.renderThumbnail(level));
+		}
+		for (File log : logs) {
+			names.add(log.getPath());
+			jobs.add(renderer.renderReplay(log));
+		}
+		int failed = 0;
+		for (int i=0; i<jobs.size(); i++) {
+			try {
+				jobs.get(i).get();
+			} catch (ExecutionException e) {
+				failed++;
+				System.out.println("Failed to render " + names.get(i));
+				e.getCause().printStackTrace();
+			}
+		}
+		renderer.close();
+		double seconds = (System.nanoTime() - start) / 1E9;
+		System.out.printf("%d thumbnails and %d replays on %d threads: %d images in %.2f s (%.0f images/s)%n",
+				levels.size(), logs.size(), threads, renderer.getWrittenCount(), seconds, renderer.getWrittenCount() / seconds);
+		if (failed > 0 || renderer.getWriteFailures() > 0) {
+			System.exit(1);
+		}
+	}
+}
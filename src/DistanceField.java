@@ -0,0 +1,168 @@
+import java.awt.Rectangle;
+
+/*
+ * DistanceField is a sampled field of the distance from any point of a level to its nearest wall.
+ *
+ * Distances are sampled on a grid of CELL_SIZE pixels and clamped at MAX_DISTANCE, so building
+ * it only visits the samples near each segment. A lookup combines the four samples around a
+ * point into a lower bound of the true distance, which is what the physics needs to skip the
+ * collision checks of a ball far from every wall. Walls are segments, not closed shapes, so the
+ * field is unsigned. Immutable once built; a level that changed in part can be sampled again
+ * around the change only.
+ */
+public class DistanceField {
+
+	//Pixels between samples.
+	public static int CELL_SIZE = 8;
+	//Largest distance stored, anything farther away reads as this far.
+	public static float MAX_DISTANCE = 64;
+
+	private double originX, originY;
+	private int cellSize;
+	private int sampleCols, sampleRows;
+	private float maxDistance;
+	//Distance at every sample, row by row.
+	private float[] samples;
+
+	/*
+	 * Constructor for DistanceField object.
+	 * Samples the distance to the segments of a level over the area covered by its tiles.
+	 *
+	 * @param	level	Level to sample.
+	 */
+	public DistanceField(LevelGeometry level) {
+		init(level);
+		sample(level, 0, 0, sampleCols-1, sampleRows-1);
+	}
+
+	/*
+	 * Constructor for the DistanceField of a level that only changed in part since another
+	 * field was sampled, as when a level is reloaded. Samples more than MAX_DISTANCE away from
+	 * the change cannot have changed, so only the others are sampled again.
+	 *
+	 * @param	previous	Field of the level before the change.
+	 * @param	level		Level to sample.
+	 * @param	changed		Part of the level that changed, in pixels.
+	 */
+	public DistanceField(DistanceField previous, LevelGeometry level, Rectangle changed) {
+		init(level);
+		if (previous.cellSize != cellSize || previous.maxDistance != maxDistance || previous.originX != originX
+				|| previous.originY != originY || previous.sampleCols != sampleCols || previous.sampleRows != sampleRows) {
+			sample(level, 0, 0, sampleCols-1, sampleRows-1);
+			return;
+		}
+		System.arraycopy(previous.samples, 0, samples, 0, samples.length);
+		int firstCol = Math.max((int) Math.floor((changed.x - maxDistance - originX)/cellSize), 0);
+		int lastCol = Math.min((int) Math.ceil((changed.x + changed.width + maxDistance - originX)/cellSize), sampleCols-1);
+		int firstRow = Math.max((int) Math.floor((changed.y - maxDistance - originY)/cellSize), 0);
+		int lastRow = Math.min((int) Math.ceil((changed.y + changed.height + maxDistance - originY)/cellSize), sampleRows-1);
+		if (firstCol <= lastCol && firstRow <= lastRow) {
+			sample(level, firstCol, firstRow, lastCol, lastRow);
+		}
+	}
+
+	/*
+	 * Helper method for constructors.
+	 * Sizes the grid of samples to the level.
+	 */
+	private void init(LevelGeometry level) {
+		cellSize = CELL_SIZE;
+		maxDistance = MAX_DISTANCE;
+		originX = level.getOriginCol()*level.getTileSize();
+		originY = level.getOriginRow()*level.getTileSize();
+		sampleCols = (level.getCols()*level.getTileSize() + cellSize - 1)/cellSize + 1;
+		sampleRows = (level.getRows()*level.getTileSize() + cellSize - 1)/cellSize + 1;
+		samples = new float[sampleCols*sampleRows];
+	}
+
+	/*
+	 * Helper method for constructors.
+	 * Samples the distance to the segments of a level at the samples of a range of columns and rows.
+	 */
+	private void sample(LevelGeometry level, int fromCol, int fromRow, int toCol, int toRow) {
+		int i;
+		//Squared distances while building, so only the closest distance of each sample needs a root.
+		for (int row=fromRow; row<=toRow; row++) {
+			i = row*sampleCols;
+			java.util.Arrays.fill(samples, i + fromCol, i + toCol + 1, maxDistance*maxDistance);
+		}
+
+		double x1, y1, x2, y2, dX, dY, invLenSq, pX, pY, u, distX, distY, distSq;
+		int firstCol, lastCol, firstRow, lastRow;
+		for (int seg=0; seg<level.getSegmentCount(); seg++) {
+			x1 = level.getSegmentX1(seg);
+			y1 = level.getSegmentY1(seg);
+			x2 = level.getSegmentX2(seg);
+			y2 = level.getSegmentY2(seg);
+			dX = x2-x1;
+			dY = y2-y1;
+			invLenSq = ((dX == 0) && (dY == 0)) ? 0 : 1/((dX*dX)+(dY*dY));
+
+			//Only the samples within the maximum distance of the segment can get closer.
+			firstCol = Math.max((int) Math.floor((Math.min(x1, x2) - maxDistance - originX)/cellSize), fromCol);
+			lastCol = Math.min((int) Math.ceil((Math.max(x1, x2) + maxDistance - originX)/cellSize), toCol);
+			firstRow = Math.max((int) Math.floor((Math.min(y1, y2) - maxDistance - originY)/cellSize), fromRow);
+			lastRow = Math.min((int) Math.ceil((Math.max(y1, y2) + maxDistance - originY)/cellSize), toRow);
+			for (int row=firstRow; row<=lastRow; row++) {
+				pY = originY + row*cellSize;
+				i = row*sampleCols + firstCol;
+				for (int col=firstCol; col<=lastCol; col++, i++) {
+					pX = originX + col*cellSize;
+					//Closest point of the segment to the sample.
+					u = (((pX-x1)*dX)+((pY-y1)*dY))*invLenSq;
+					u = (u < 0) ? 0 : ((u > 1) ? 1 : u);
+					distX = pX - (x1 + u*dX);
+					distY = pY - (y1 + u*dY);
+					distSq = (distX*distX)+(distY*distY);
+					if (distSq < samples[i]) {
+						samples[i] = (float) distSq;
+					}
+				}
+			}
+		}
+		for (int row=fromRow; row<=toRow; row++) {
+			i = row*sampleCols + fromCol;
+			for (int col=fromCol; col<=toCol; col++, i++) {
+				samples[i] = (float) Math.sqrt(samples[i]);
+			}
+		}
+	}
+
+	/*
+	 * Distance from a point to the nearest wall, never more than the true distance.
+	 * The distance of a sample minus how far the point is from it is a lower bound, since the
+	 * distance to the walls changes at most as fast as the point moves; the best of the four
+	 * samples around the point is returned.
+	 *
+	 * @return	Lower bound of the distance to the nearest wall, at most MAX_DISTANCE;
+	 *			0 outside the level.
+	 */
+	public double getDistance(double x, double y) {
+		double fX = (x - originX)/cellSize;
+		double fY = (y - originY)/cellSize;
+		int col = (int) Math.floor(fX);
+		int row = (int) Math.floor(fY);
+		if (col < 0 || row < 0 || col >= sampleCols-1 || row >= sampleRows-1) {
+			return 0;
+		}
+		fX = (fX - col)*cellSize;
+		fY = (fY - row)*cellSize;
+		double gX = cellSize - fX;
+		double gY = cellSize - fY;
+		int i = row*sampleCols + col;
+		double best = samples[i] - Math.sqrt((fX*fX)+(fY*fY));
+		best = Math.max(best, samples[i+1] - Math.sqrt((gX*gX)+(fY*fY)));
+		best = Math.max(best, samples[i+sampleCols] - Math.sqrt((fX*fX)+(gY*gY)));
+		best = Math.max(best, samples[i+sampleCols+1] - Math.sqrt((gX*gX)+(gY*gY)));
+		//Samples went through float twice, stay on the safe side of them.
+		return Math.max(0, best - 1E-3);
+	}
+
+	public int getCellSize() {
+		return cellSize;
+	}
+
+	public double getMaxDistance() {
+		return maxDistance;
+	}
+}
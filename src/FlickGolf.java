@@ -5,7 +5,9 @@ import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.awt.image.BufferStrategy;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import javax.swing.*;
 import javax.swing.plaf.basic.BasicInternalFrameTitlePane.SystemMenuBar;
@@ -15,54 +17,147 @@ import javax.swing.plaf.basic.BasicInternalFrameTitlePane.SystemMenuBar;
  * 
  * Handles the initiation of all related classes.
  * Handles the game's event listeners.
+ * 
+ * Runs either passively, updated and repainted by a Swing Timer, or actively
+ * from a GameLoop drawing to a Canvas (-active). Either way ticking stops while the ball is
+ * at rest and the player is doing nothing, and resumes on the next mouse or key input.
+ * Can record the player's input for InputReplay (-record file).
+ * Worlds larger than the screen (-level world.fgw) are streamed around the ball and drawn
+ * with a camera following it.
+ * Several players can share the course (-balls N), each with their own ball; Tab passes the
+ * input to the next ball. Streamed worlds only hold the walls around one ball, so they are
+ * played with a single ball.
+ * While aiming, the path the shot would take is predicted by a TrajectoryPreview and drawn
+ * up to its first bounces.
+ * For editing levels, -watch reloads a CSV level whenever it or the mapping file is saved,
+ * keeping the balls where they are.
  */
 public class FlickGolf extends JPanel implements MouseListener,MouseMotionListener,KeyListener{
 	
+	public static String LEVEL = "Assets/level1.csv";
+	
+	private String levelName;
 	private Map map;
-	private BufferedImage background;
+	private LevelBackground background;
+	//Every ball on the course, and the one the player currently controls.
+	private Ball[] balls;
 	private Ball ball;
+	private volatile int current;
+	private BallCollider collider;
+	private static Color[] BALL_COLORS = {Color.gray, Color.white, Color.red, Color.blue,
+			Color.yellow, Color.magenta, Color.cyan, Color.orange, Color.pink, Color.black};
 	
 	private boolean playing;
 	
-	private boolean clicked;
-	private Point mouseClick;
-	private Point mouseCurrent;
+	//Written by the event thread, read when rendering.
+	private volatile boolean clicked;
+	private volatile Point mouseClick;
+	private volatile Point mouseCurrent;
+	//Whether the aim changed since the preview was last requested, from the game thread.
+	private volatile boolean previewWanted;
+	private TrajectoryPreview preview;
+	private LevelWatcher watcher;
+	
+	//Player input waiting for the next physics tick.
+	private ConcurrentLinkedQueue<GameInput> inputs;
+	//Ball positions before the last physics tick, for interpolated drawing.
+	private double[] prevX, prevY;
+	//Number of physics ticks completed.
+	private long tick;
+	private InputRecorder recorder;
 	
 	private Timer timer;
 	private ActionListener taskPerformer;
 	private static int TARGET_FPS = 300;
 	private static int TARGET_IN_MILLI = 1000 / TARGET_FPS;
 	
-	private boolean showDevLines;
-	private ArrayList<Line2D> collLines;
-	private ArrayList<Ellipse2D> collCircs;
-	private ArrayList<Point2D> pointsOfInterest;
-	private Line2D impactLine;
-	private Point2D impact;
+	//Pixels of mouse drag per unit of ball velocity.
+	public static double FLICK_SCALE = 50;
+	
+	private GameLoop loop;
+	
+	//Screen areas covered by the balls and aim line when last painted (passive mode).
+	private Rectangle[] paintedBalls;
+	private Rectangle paintedAim;
+	private double[] paintedPath;
+	//Set when the whole panel must be repainted on the next tick.
+	private volatile boolean fullRepaint;
+	
+	//Engine of every ball, and of the one the player currently controls.
+	private PhysicsEngine[] engines;
+	private PhysicsEngine engine;
+	private volatile boolean showDevLines;
+	
+	//World pixel at the top left of the screen when last rendered, (0,0) unless streaming.
+	private volatile int cameraX, cameraY;
 	
 	public FlickGolf() {
+		this(LEVEL);
+	}
+	
+	/*
+	 * Constructor for FlickGolf object.
+	 * 
+	 * @param	levelName	Name of level to play (CSV, .lvl or .fgw file)
+	 */
+	public FlickGolf(String levelName) {
+		this(levelName, 1);
+	}
+	
+	/*
+	 * Constructor for FlickGolf object with several balls.
+	 * The first ball starts on the level's starting position, the others around it.
+	 * 
+	 * @param	levelName	Name of level to play (CSV, .lvl or .fgw file)
+	 * @param	ballCount	Number of balls, the first one is controlled first; only one for a world.
+	 * @throws	IllegalArgumentException	If the level fails to load or the balls do not all fit around the start.
+	 */
+	public FlickGolf(String levelName, int ballCount) {
+		if (ballCount > 1 && levelName.endsWith(WorldFile.EXTENSION)) {
+			throw new IllegalArgumentException("Streamed worlds are played with a single ball: " + levelName);
+		}
+		this.levelName = levelName;
 		map = new Map();
-		map.loadLevel("Assets/level1.csv");
-		background = new BufferedImage(Map.WIDTH,Map.HEIGHT,BufferedImage.TYPE_INT_ARGB);
-		map.draw(background.getGraphics());
+		if (!map.loadLevel(levelName)) {
+			throw new IllegalArgumentException("Failed to load level: " + levelName);
+		}
+		background = new LevelBackground(map);
 		int tS = Map.TILESIZE;
-		int r = (int)(tS/4);
+		int r = Map.BALL_RADIUS;
 		Point start = map.getStart();
-		ball = new Ball(new Point(start.x*tS + r,start.y*tS + r),r);
+		double[] centers = findStarts(ballCount, r);
+		balls = new Ball[ballCount];
+		engines = new PhysicsEngine[ballCount];
+		prevX = new double[ballCount];
+		prevY = new double[ballCount];
+		for (int i=0; i<ballCount; i++) {
+			balls[i] = new Ball(new Point(start.x*tS + r,start.y*tS + r),r);
+			balls[i].setCenter(centers[2*i], centers[(2*i)+1]);
+			balls[i].setColor(BALL_COLORS[i % BALL_COLORS.length]);
+			prevX[i] = balls[i].getCircle().getCenterX();
+			prevY[i] = balls[i].getCircle().getCenterY();
+			engines[i] = new PhysicsEngine(map, balls[i]);
+		}
+		collider = new BallCollider(engines);
+		ball = balls[0];
+		engine = engines[0];
+		paintedBalls = new Rectangle[ballCount];
+		inputs = new ConcurrentLinkedQueue<GameInput>();
+		preview = new TrajectoryPreview();
 		clicked = false;
 		playing = false;
 		addMouseListener(this);
 		addMouseMotionListener(this);
 		
 		showDevLines = false;
-		collLines = new ArrayList<Line2D>();
-		collCircs = new ArrayList<Ellipse2D>();
-		pointsOfInterest = new ArrayList<Point2D>();
 				
 		taskPerformer = new ActionListener() {
 			public void actionPerformed(ActionEvent evt) {
 				gameUpdate();
-				repaint();
+				repaintChanged();
+				if (isIdle()) {
+					timer.stop();
+				}
 			}
 		};
 		
@@ -70,6 +165,74 @@ public class FlickGolf extends JPanel implements MouseListener,MouseMotionListen
 		timer.setInitialDelay(0);
 	}
 	
+	/*
+	 * Helper method for constructor.
+	 * Spirals outwards from the level's starting position on a grid 3 radii apart, keeping the
+	 * spots inside the level, clear of the walls and in a straight line from the start, so no
+	 * ball begins in a wall or behind one.
+	 * 
+	 * @param	ballCount	Number of balls to place.
+	 * @param	r	Radius of the balls.
+	 * 
+	 * @return	Centers of the balls, x then y, the first on the starting position.
+	 * @throws	IllegalArgumentException	If the balls do not all fit around the start.
+	 */
+	private double[] findStarts(int ballCount, int r) {
+		LevelGeometry geometry = map.getGeometry(r);
+		Point start = map.getStart();
+		double startX = start.x*Map.TILESIZE + r;
+		double startY = start.y*Map.TILESIZE + r;
+		double spacing = 3*r;
+		int rings = (int) Math.ceil(Math.max(map.getWorldWidth(), map.getWorldHeight())/spacing);
+		double[] centers = new double[2*ballCount];
+		centers[0] = startX;
+		centers[1] = startY;
+		int placed = 1;
+		double x, y;
+		int side, along;
+		for (int ring=1; ring<=rings && placed<ballCount; ring++) {
+			//Walks the square ring clockwise from its top left corner.
+			for (int i=0; i<8*ring && placed<ballCount; i++) {
+				side = i / (2*ring);
+				along = (i % (2*ring)) - ring;
+				x = startX + ((side == 0) ? along : (side == 1) ? ring : (side == 2) ? -along : -ring)*spacing;
+				y = startY + ((side == 0) ? -ring : (side == 1) ? along : (side == 2) ? ring : -along)*spacing;
+				if (x < r || y < r || x > map.getWorldWidth() - r || y > map.getWorldHeight() - r
+						|| geometry.getWallDistance(x, y) <= r || !inSight(geometry, startX, startY, x, y, r)) {
+					continue;
+				}
+				centers[2*placed] = x;
+				centers[(2*placed)+1] = y;
+				placed++;
+			}
+		}
+		if (placed < ballCount) {
+			throw new IllegalArgumentException("Only " + placed + " of " + ballCount
+					+ " balls fit around the start of " + levelName);
+		}
+		return centers;
+	}
+	
+	/*
+	 * Helper method for findStarts method.
+	 * Samples the distance field every half radius along the line, so a wall crossing it between
+	 * two samples would be nearer than that to one of them.
+	 * 
+	 * @return	Whether no wall crosses the line from (x1,y1) to (x2,y2).
+	 */
+	private static boolean inSight(LevelGeometry geometry, double x1, double y1, double x2, double y2, int r) {
+		double length = Math.sqrt(((x2-x1)*(x2-x1))+((y2-y1)*(y2-y1)));
+		int samples = (int) Math.ceil(length/(r/2.0));
+		double t;
+		for (int i=1; i<=samples; i++) {
+			t = i/(double) samples;
+			if (geometry.getWallDistance(x1 + (t*(x2-x1)), y1 + (t*(y2-y1))) < r/2.0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
 	
 	public void playGame() {
 		playing = true;		
@@ -77,349 +240,434 @@ public class FlickGolf extends JPanel implements MouseListener,MouseMotionListen
 	}
 	
 	/*
-	 * Update game logic and check for game end conditions.
+	 * Stops playing, and ends the recording if there is one.
+	 */
+	public void stopGame() throws InterruptedException {
+		playing = false;
+		timer.stop();
+		if (loop != null) {
+			loop.stop();
+		}
+		preview.close();
+		if (watcher != null) {
+			try {
+				watcher.close();
+			} catch (IOException e) {
+				System.out.println("Failed to stop watching the level.");
+				e.printStackTrace();
+			}
+		}
+		if (recorder != null) {
+			try {
+				recorder.close(tick, balls);
+			} catch (IOException e) {
+				System.out.println("Failed to save recording.");
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/*
+	 * Records all input from now on, until the game is stopped.
 	 * 
+	 * @param	file	File to write the recording to.
 	 */
-	public void gameUpdate() {
-		physicsUpdate();
+	public void startRecording(File file) throws IOException {
+		recorder = new InputRecorder(file, levelName, ball.getRadius(), engine, balls.length);
 	}
 	
 	/*
-	 * Check and update physics of the game using fixed time step. 
-	 * (collision detection/handling)
+	 * Reloads the level whenever its file or the mapping file changes on disk, until the game is stopped.
+	 * Only CSV levels can be watched.
+	 * 
+	 * @param	dir		Directory holding the source of the classpath's Assets folder, e.g. src.
 	 */
-	public void physicsUpdate() {
-		double delta = 1.0;
-		while (delta > 0) {
-			Point2D vel = ball.getVelocity();
-			ArrayList<Line2D> lines = map.getPossibleLines(ball, delta);
-			if (lines.isEmpty()) {
-				ball.move(vel.getX()*delta, vel.getY()*delta);
-				delta = 0;
-			} else {
-				if(timer.isRunning()) {
-					collLines.clear();
-					collCircs.clear();
-					pointsOfInterest.clear();
-				}
-				//Collision handling
-				double smallestDist = Map.HEIGHT;
-				ArrayList<Point2D> collisions = new ArrayList<Point2D>();
-				double fullDist = Math.sqrt(Math.pow(vel.getX(), 2) + Math.pow(vel.getY(), 2));
-				
-				//R
-				Line2D save = lines.get(0);
-				for (Line2D line : lines) {
-					double before = smallestDist;
-					smallestDist = checkLines(line,smallestDist,collisions);
-					smallestDist = checkCircles(line,smallestDist,collisions);
-					
-					//R
-					if (smallestDist < before) {
-						save = line;
-					}
-				}
-						
-				if(smallestDist < Map.HEIGHT) {
-					
-					Point2D lineP1 = collisions.get(0);
-					Point2D lineP2 = collisions.get(1);
-					Point2D intersect = collisions.get(2);
-					double collDelta = smallestDist/fullDist;
-					if (collDelta > 0 && collDelta <= delta) {
-						Point2D newVel = getReflectVel(ball.getVelocity(),lineP1,lineP2);
-
-						ball.setCenter(intersect.getX(), intersect.getY());
-						
-						//Handle any simultaneous collisions here.
-						if (collisions.size() >= 6) {
-							for(int i=3; i<collisions.size(); i+=3) {
-								newVel = getReflectVel(newVel,collisions.get(i),collisions.get(i+1));
-							}
-						}
-						
-						ball.setVelocity(newVel);
-						
-						//Remove later
-						impactLine = save;
-						impact = intersect;
-						//timer.stop();
-						//System.out.println("Stop");
-						
-						delta -= collDelta;
-						
-						
-						
-					} else {
-						ball.move(vel.getX()*delta, vel.getY()*delta);
-						delta = 0;
-					}
-					
-				} else {
-					ball.move(vel.getX()*delta, vel.getY()*delta);
-					delta = 0;
-				}
-			}
+	public void watchLevel(File dir) throws IOException {
+		if (!levelName.endsWith(".csv")) {
+			throw new IllegalArgumentException("Only CSV levels can be watched: " + levelName);
 		}
-		
+		watcher = new LevelWatcher(map, new File(dir, levelName), new File(dir, "Assets/mapping.csv"), new Runnable() {
+			public void run() {
+				wake();
+			}
+		});
+		watcher.start();
 	}
 	
 	/*
-	 * Helper method for physicsUpdate method.
-	 * Creates circles around edge points of line to check for intersections.
-	 * Updates current collision array accordingly if a shorter collision is found.
-	 * 
-	 * @param	line			Line segment to project circles around.
-	 * @param	currSmallest	Current smallest distance to a known collision point.
-	 * @param 	current			Array representation of the line and point for current collision.
+	 * Plays the game with active rendering to a canvas instead of the Timer.
 	 * 
-	 * @return	smallest distance between given and collisions with generated circles.
+	 * @param	canvas	Displayable canvas to draw on, receiving the game's input events.
+	 * @param	fps		Frames drawn per second, 0 to follow the display's refresh rate.
 	 */
-	private double checkCircles(Line2D line, double currSmallest, ArrayList<Point2D> collisions) {
-		double smallest = currSmallest;
-		Point2D collPoint = new Point2D.Double(-1,-1);
-		Point2D vel = ball.getVelocity();
-		Point2D start = new Point2D.Double(ball.getCircle().getCenterX(),ball.getCircle().getCenterY());
-		double r = ball.getRadius();
-		
-		for (int  i=0; i<2; i++) {
-			Line2D tangent;
-			double a, b, c, m, b2, det, dist;
-			Point2D center;
-			if (i==0) {
-				center = line.getP1();
-			} else {
-				center = line.getP2();
-			}
-			
-			//Calculate point(s) of intersection using quadratic formula and equations for both circle and line.
-			if (vel.getX() == 0) {
-				//Special case if line is vertical (cannot be represented by equation y=mx+b.
-				m = 0;
-				b2 = 0;
-				a = 1;
-				b = -2*center.getY();
-				c = Math.pow(ball.getCircle().getCenterX()-center.getX(),2)+Math.pow(center.getY(), 2)-(r*r);
-			} else {
-				m = vel.getY()/vel.getX();
-				b2 = start.getY()-m*start.getX();
-				a = m*m + 1;
-				b = 2*((m*b2)-(m*center.getY())-center.getX());
-				c = Math.pow(center.getY(),2)-(r*r)+Math.pow(center.getX(), 2)-(2*b2*center.getY())+(b2*b2);
-			}
-			det = Math.pow(b, 2)- (4*a*c);
-			int loop = 1;
-			//Use determinant for quadratic formula to find number of points of intersection.
-			if (det < 0) {
-				loop = -2;
-			} else if (det == 0) {
-				loop = -1;
+	public void playGame(Canvas canvas, int fps) {
+		playing = true;
+		loop = new GameLoop(this, canvas, fps);
+		loop.start();
+	}
+	
+	/*
+	 * Update game logic and check for game end conditions.
+	 * Applies the input received since the last update first.
+	 * Debug geometry is only collected while the dev overlay is shown.
+	 */
+	public void gameUpdate() {
+		engine.setDebug(showDevLines);
+		GameInput input;
+		while ((input = inputs.poll()) != null) {
+			if (input.getType() == GameInput.SELECT) {
+				select((int) input.getX());
 			} else {
-				loop = 1;
+				input.applyTo(ball);
 			}
-			for (int j=-1; j<=loop; j+=2) {
-				if (vel.getX() == 0) {
-					//Special case if line was vertical.
-					collPoint.setLocation(ball.getCircle().getCenterX(), (-b+j*Math.sqrt(det))/(2*a));
-				} else {
-					double x = (-b+(j*Math.sqrt(det)))/(2*a);
-					collPoint.setLocation(x, (x*m)+b2);
-				}
-				//Make sure the ball is traveling towards the collision point.
-				Point2D dir = new Point2D.Double(collPoint.getX()-start.getX(),collPoint.getY()-start.getY());
-				if (Math.signum(vel.getX()) == Math.signum(dir.getX()) && Math.signum(vel.getY()) == Math.signum(dir.getY())) {
-					dist = collPoint.distance(start);
-					if (dist > 1E-5 && dist <= smallest) {
-						if (dist != smallest) {
-							collisions.clear();
-						}
-						smallest = dist;
-						tangent = getTangent(center,collPoint);
-						//Remove overlapping circles.
-						if(!collisions.contains(collPoint)) {
-							collisions.add(tangent.getP1());
-							collisions.add(tangent.getP2());
-							collisions.add((Point2D)collPoint.clone());
-							if(timer.isRunning()) collLines.add(tangent);
-						}
-					}
+			if (recorder != null) {
+				try {
+					recorder.recordInput(tick, input);
+				} catch (IOException e) {
+					System.out.println("Failed to record input.");
+					e.printStackTrace();
+					recorder = null;
 				}
-				if(timer.isRunning()) pointsOfInterest.add(collPoint);
 			}
-			if(timer.isRunning()) collCircs.add(new Ellipse2D.Double(center.getX()-r, center.getY()-r, r*2, r*2));
 		}
-		return smallest;
+		for (int i=0; i<balls.length; i++) {
+			prevX[i] = balls[i].getCircle().getCenterX();
+			prevY[i] = balls[i].getCircle().getCenterY();
+		}
+		if (map.applyReload() != null) {
+			fullRepaint = true;
+		}
+		map.follow(ball);
+		physicsUpdate();
+		map.advanceObstacles();
+		tick++;
+		//The aim changed, or the shot would start somewhere else now.
+		if (clicked && (previewWanted || !ball.isAtRest())) {
+			previewWanted = false;
+			requestPreview();
+		}
+		if (recorder != null) {
+			try {
+				recorder.tickDone(tick, balls);
+			} catch (IOException e) {
+				System.out.println("Failed to record input.");
+				e.printStackTrace();
+				recorder = null;
+			}
+		}
 	}
 	
 	/*
-	 * Helper method for checkCircles method.
-	 * 
-	 * @param	center	Center of circle
-	 * @param	point	Point on circle to find tangential line.
-	 * 
-	 * @return Any line tangential to circle at given point.
+	 * Queues an input for the next update, as if the player had made it.
 	 */
-	private Line2D getTangent(Point2D center, Point2D point) {
-		double pX = point.getX();
-		double pY = point.getY();
-		double dY = pY - center.getY();
-		double dX = pX - center.getX();
-		if (dY == 0) {
-			return new Line2D.Double(pX,pY-20,pX,pY+20);
-		} else if (dX == 0) {
-			return new Line2D.Double(pX-20,pY,pX+20,pY);
-		} else {
-			if(timer.isRunning()) {
-				pointsOfInterest.add(point);
-				pointsOfInterest.add(center);
+	public void queueInput(GameInput input) {
+		inputs.add(input);
+		wake();
+	}
+	
+	/*
+	 * @return	Whether nothing can change until the player does something:
+	 *			the ball is at rest, no input or reloaded level is waiting, nothing is left to repaint
+	 *			and the level has no moving obstacles.
+	 */
+	public boolean isIdle() {
+		for (Ball b : balls) {
+			if (!b.isAtRest()) {
+				return false;
 			}
-			return new Line2D.Double(pX-dY,pY+dX,pX+dY,pY-dX);
 		}
+		return inputs.isEmpty() && !clicked && !fullRepaint && !map.isReloadPending() && map.getObstacles() == null;
 	}
 	
 	/*
-	 * Helper method for physicsUpdate method.
-	 * Projects lines on either side of given line at ball's radius distance away to check for intersections.
-	 * Updates current collision array accordingly if a shorter collision is found.
-	 * 
-	 * @param	line			Line segment to project lines from.
-	 * @param	currSmallest	Current smallest distance to a known collision point.
-	 * @param 	current			Array representation of the line and point for current collision.
+	 * Resumes ticking after the game went idle. Safe to call at any time, from any thread.
+	 */
+	public void wake() {
+		if (!playing) {
+			return;
+		}
+		if (loop != null) {
+			loop.wake();
+		} else if (!EventQueue.isDispatchThread()) {
+			//The timer only stops on the event thread, after finding the game idle; waking there
+			//too means a wake can never fall between that check and the stop and be lost.
+			EventQueue.invokeLater(new Runnable() {
+				public void run() {
+					wake();
+				}
+			});
+		} else if (!timer.isRunning()) {
+			timer.start();
+		}
+	}
+	
+	/*
+	 * @return	Number of physics ticks completed.
+	 */
+	public long getTick() {
+		return tick;
+	}
+	
+	/*
+	 * @return	Ball the player currently controls.
+	 */
+	public Ball getBall() {
+		return ball;
+	}
+	
+	public Ball[] getBalls() {
+		return balls;
+	}
+	
+	/*
+	 * Hands control to another ball, moving the dev overlay to its engine.
 	 * 
-	 * @return	smallest distance between given and collisions with generated circles.
+	 * @param	index	Number of the ball, ignored if there is no such ball.
 	 */
-	private double checkLines(Line2D line, double currSmallest, ArrayList<Point2D> collisions) {
-		double smallest = currSmallest;
-		double dist, mag, dX, dY, dX_PA, dY_PA;
-		double r = ball.getRadius();
-		Point2D point;
-		dY = line.getY2()-line.getY1();
-		dX = line.getX2()-line.getX1();
-		dist = Math.sqrt((dY*dY)+(dX*dX));
-		mag = r / dist;
-		point = new Point2D.Double(line.getX1()+(mag*dX),line.getY1()+(mag*dY));
-		dY_PA = point.getY()-line.getY1();
-		dX_PA = point.getX()-line.getX1();
-		
-		double a,b,c,dX1,dX2,dY1,dY2,t,u;
-		double[] d = new double[2];
-		Line2D newLine;
-		Point2D start = new Point2D.Double(ball.getCircle().getCenterX(),ball.getCircle().getCenterY());
-		for (int i=-1; i<=1; i+=2) {
-			newLine = new Line2D.Double(line.getX1()+(i*dY_PA),line.getY1()-(i*dX_PA),line.getX2()+(i*dY_PA),line.getY2()-(i*dX_PA));
-			dX1 = ball.getVelocity().getX();
-			dY1 = ball.getVelocity().getY();
-			dX2 = newLine.getX2()-newLine.getX1();
-			dY2 = newLine.getY2()-newLine.getY1();
-			d[0] = newLine.getX1()-start.getX();
-			d[1] = newLine.getY1()-start.getY();
-			a = (dX1*dY2)-(dY1*dX2);
-			b = (d[0]*dY1)-(d[1]*dX1);
-			c = (d[0]*dY2)-(d[1]*dX2);
-			if( a != 0 ) {
-				t = c / a;
-				u = b / a;
-				if (u>0 && u<1 && t>=0 && t<=1) {
-					point.setLocation(start.getX()+(t*dX1), start.getY()+(t*dY1));
-					dist = point.distance(start);
-					if(timer.isRunning()) pointsOfInterest.add(point);
-					if (dist > 1E-5 && dist <= smallest) {
-						if (dist != smallest) {
-							collisions.clear();
-						}
-						smallest = dist;
-						collisions.add(newLine.getP1());
-						collisions.add(newLine.getP2());
-						collisions.add((Point2D)point.clone());
+	private void select(int index) {
+		if (index < 0 || index >= balls.length) {
+			return;
+		}
+		engine.setDebug(false);
+		current = index;
+		ball = balls[index];
+		engine = engines[index];
+		engine.setDebug(showDevLines);
+		//Any shot being aimed now starts from the new ball.
+		previewWanted = true;
+		fullRepaint = true;
+	}
+	
+	/*
+	 * Sets the rolling friction of every ball (see PhysicsEngine.setFriction).
+	 */
+	public void setFriction(double friction, double sleepSpeed) {
+		for (PhysicsEngine e : engines) {
+			e.setFriction(friction, sleepSpeed);
+		}
+	}
+	
+	/*
+	 * Asks for the path of the shot the player is aiming, as it would be fired on release.
+	 * Only called from the game thread, which owns the ball and engine being aimed.
+	 */
+	private void requestPreview() {
+		Point click = mouseClick;
+		Point current = mouseCurrent;
+		if (click != null && current != null) {
+			preview.request(engine.getGeometry(), ball, (current.getX()-click.getX())/FLICK_SCALE,
+					(current.getY()-click.getY())/FLICK_SCALE, engine.getFriction(), engine.getSleepSpeed());
+		}
+	}
+	
+	/*
+	 * Check and update physics of the game using fixed time step. 
+	 * (collision detection/handling)
+	 */
+	public void physicsUpdate() {
+		collider.step();
+	}
+	
+	/*
+	 * Repaints only the parts of the panel that changed since they were last painted:
+	 * each ball's old and new position, the old and new aim line and predicted path, and the
+	 * moving obstacles.
+	 * Nothing is repainted if nothing changed. The dev overlay changes every tick so
+	 * while it is shown the whole panel is repainted, as is the camera moving with the ball.
+	 */
+	private void repaintChanged() {
+		Rectangle aimNow = clicked ? getAimBounds() : null;
+		double[] pathNow = clicked ? preview.getPath() : null;
+		if (map.isStreaming() && !getBallBounds(ball).equals(paintedBalls[current])) {
+			fullRepaint = true;
+		}
+		if (showDevLines || fullRepaint) {
+			fullRepaint = false;
+			repaint();
+			for (int i=0; i<balls.length; i++) {
+				paintedBalls[i] = getBallBounds(balls[i]);
+			}
+		} else {
+			Rectangle ballNow;
+			for (int i=0; i<balls.length; i++) {
+				ballNow = getBallBounds(balls[i]);
+				if (!ballNow.equals(paintedBalls[i])) {
+					if (paintedBalls[i] != null) {
+						repaint(paintedBalls[i]);
 					}
+					repaint(ballNow);
+					paintedBalls[i] = ballNow;
+				}
+			}
+			ObstacleSet obstacles = map.getObstacles();
+			if (obstacles != null) {
+				//The bounds of the coming tick hold the pose drawn last and the one drawn next.
+				for (int i=0; i<obstacles.size(); i++) {
+					repaint(obstacles.getBounds(i));
+				}
+			}
+			if ((aimNow == null ? paintedAim != null : !aimNow.equals(paintedAim)) || pathNow != paintedPath) {
+				if (paintedAim != null) {
+					repaint(paintedAim);
+				}
+				if (aimNow != null) {
+					repaint(aimNow);
 				}
 			}
-			if(timer.isRunning()) collLines.add(newLine);
 		}
-		return smallest;
+		paintedAim = aimNow;
+		paintedPath = pathNow;
 	}
 	
 	/*
-	 * Helper method for physicsUpdate method.
-	 * Calculates the reflection vector for velocity assumed to hit line P1 -> P2.
-	 * 
-	 * @param	vel		Given starting velocity.
-	 * @param	lineP1	First point on line.
-	 * @param	lineP2	Second point on line. 
-	 * 
-	 * @return	Reflection vector over line.
+	 * @return	Pixels covered by a ball and the ring marking the selected ball,
+	 *			with a pixel of margin for anti-aliasing.
 	 */
-	private Point2D getReflectVel(Point2D vel, Point2D lineP1, Point2D lineP2) {
-		double dotProd;
-		double dX = lineP2.getX()-lineP1.getX();
-		double dY = lineP2.getY()-lineP1.getY();
-		double[] projLine = new double[2];
-		double[] projLineNorm = new double[2];
-		dotProd = ((vel.getX()*dX)+(vel.getY()*dY))/((dX*dX)+(dY*dY));
-		projLine[0] = dotProd*dX;
-		projLine[1] = dotProd*dY;
-		
-		dotProd = ((vel.getX()*dY)+(vel.getY()*-dX))/((dY*dY)+(-dX*-dX));
-		projLineNorm[0] = dotProd*dY;
-		projLineNorm[1] = dotProd*-dX;
-		
-		return new Point2D.Double(projLine[0]-projLineNorm[0],projLine[1]-projLineNorm[1]);
-		
+	private Rectangle getBallBounds(Ball ball) {
+		int r = ball.getRadius() + 2;
+		int x = (int) Math.floor(ball.getCircle().getCenterX()) - r - 1;
+		int y = (int) Math.floor(ball.getCircle().getCenterY()) - r - 1;
+		return new Rectangle(x, y, 2*r+3, 2*r+3);
+	}
+	
+	/*
+	 * @return	Pixels covered by the aim line and predicted path, null if there is none.
+	 */
+	private Rectangle getAimBounds() {
+		Point click = mouseClick;
+		Point current = mouseCurrent;
+		if (click == null || current == null) {
+			return null;
+		}
+		Rectangle bounds = new Rectangle(click);
+		bounds.add(current);
+		double[] path = preview.getPath();
+		if (path != null) {
+			for (int i=0; i<path.length; i+=2) {
+				bounds.add((int) Math.floor(path[i]) - cameraX, (int) Math.floor(path[i+1]) - cameraY);
+				bounds.add((int) Math.ceil(path[i]) - cameraX, (int) Math.ceil(path[i+1]) - cameraY);
+			}
+		}
+		bounds.grow(1, 1);
+		bounds.width++;
+		bounds.height++;
+		return bounds;
 	}
 	
 	@Override
 	public void paintComponent(Graphics g) {
-		Graphics2D g2d = (Graphics2D) g;
 		super.paintComponent(g);
-		g.drawImage(background,0,0,null);
-		ball.draw(g);
-		if(clicked) {
-			g2d.drawLine(mouseClick.x, mouseClick.y, mouseCurrent.x, mouseCurrent.y);
+		render((Graphics2D) g, getGraphicsConfiguration(), 1.0);
+	}
+	
+	/*
+	 * Draws the whole game.
+	 * 
+	 * @param	g2d		Graphics to draw on.
+	 * @param	gc		Configuration of the screen being drawn to, null if none.
+	 * @param	alpha	How far between the previous and the current physics tick to draw the ball.
+	 */
+	public void render(Graphics2D g2d, GraphicsConfiguration gc, double alpha) {
+		Graphics g = g2d;
+		double x = ball.getCircle().getCenterX();
+		double y = ball.getCircle().getCenterY();
+		double drawX = prevX[current] + (x-prevX[current])*alpha;
+		double drawY = prevY[current] + (y-prevY[current])*alpha;
+		int camX = 0;
+		int camY = 0;
+		if (map.isStreaming()) {
+			//Center the camera on the ball without showing past the edges of the world.
+			camX = (int) Math.max(0, Math.min(Math.round(drawX) - Map.WIDTH/2, map.getWorldWidth() - Map.WIDTH));
+			camY = (int) Math.max(0, Math.min(Math.round(drawY) - Map.HEIGHT/2, map.getWorldHeight() - Map.HEIGHT));
+			cameraX = camX;
+			cameraY = camY;
+			g2d.translate(-camX, -camY);
+			map.draw(g, new Rectangle(camX, camY, Map.WIDTH, Map.HEIGHT));
+		} else {
+			background.draw(g, gc);
 		}
+		map.drawObstacles(g, alpha);
+		for (int i=0; i<balls.length; i++) {
+			x = balls[i].getCircle().getCenterX();
+			y = balls[i].getCircle().getCenterY();
+			balls[i].draw(g, prevX[i] + (x-prevX[i])*alpha, prevY[i] + (y-prevY[i])*alpha);
+		}
+		if (balls.length > 1) {
+			//Ring around the ball the player controls.
+			int r = ball.getRadius() + 2;
+			g2d.setColor(Color.black);
+			g2d.drawOval((int) Math.round(drawX) - r, (int) Math.round(drawY) - r, 2*r, 2*r);
+			g2d.setColor(Color.gray);
+		}
+		double[] path = clicked ? preview.getPath() : null;
+		if (path != null) {
+			g2d.setColor(Color.white);
+			for (int i=2; i<path.length; i+=2) {
+				g2d.drawLine((int) Math.round(path[i-2]), (int) Math.round(path[i-1]),
+						(int) Math.round(path[i]), (int) Math.round(path[i+1]));
+			}
+			g2d.setColor(Color.gray);
+		}
+		//The aim line is in screen coordinates.
+		g2d.translate(camX, camY);
+		Point click = mouseClick;
+		Point current = mouseCurrent;
+		if(clicked && click != null && current != null) {
+			g2d.drawLine(click.x, click.y, current.x, current.y);
+		}
+		g2d.translate(-camX, -camY);
 		
 		if(showDevLines) {
 		g2d.setColor(Color.cyan);
-			for (Ellipse2D e:collCircs) {
+			for (Ellipse2D e:engine.getCollCircs()) {
 				g2d.draw(e);
 			}
 			g2d.setColor(Color.red);
-			for (Line2D l:collLines) {
+			for (Line2D l:engine.getCollLines()) {
 				g2d.draw(l);
 			}
 			g2d.setColor(Color.green);
 			g2d.fillOval((int)ball.getCircle().getCenterX()-1,(int)ball.getCircle().getCenterY()-1,3,3);
 			
 			g2d.setColor(Color.orange);
-			for (Point2D point:pointsOfInterest) {
+			for (Point2D point:engine.getPointsOfInterest()) {
 				g2d.drawOval((int)point.getX()-1, (int)point.getY()-1, 3, 3);
 			}
 		}
+		g2d.translate(camX, camY);
 	}
 	
 	@Override
 	public void keyPressed(KeyEvent key) {
 		int kc = key.getKeyCode();
 		if(kc == KeyEvent.VK_A) {
-			ball.setVelocity(-1,0);
+			queueInput(new GameInput(GameInput.NUDGE,-1,0));
 		} else if (kc == KeyEvent.VK_D) {
-			ball.setVelocity(1,0);
+			queueInput(new GameInput(GameInput.NUDGE,1,0));
 		} else if (kc == KeyEvent.VK_W) {
-			ball.setVelocity(0,-1);
+			queueInput(new GameInput(GameInput.NUDGE,0,-1));
 		} else if (kc == KeyEvent.VK_S) {
-			ball.setVelocity(0,1);
+			queueInput(new GameInput(GameInput.NUDGE,0,1));
+		} else if (kc == KeyEvent.VK_TAB) {
+			queueInput(new GameInput(GameInput.SELECT,(current+1) % balls.length,0));
 		} else if (kc == KeyEvent.VK_F1) {
 			showDevLines = !showDevLines;
+			//Showing or hiding the overlay changes the whole panel.
+			fullRepaint = true;
+			wake();
 		}
 	}
 
 	@Override
 	public void mousePressed(MouseEvent e) {
 		if (e.getButton() == MouseEvent.BUTTON3) {
-			ball.setCenter(e.getPoint().getX(), e.getPoint().getY());
+			queueInput(new GameInput(GameInput.TELEPORT,e.getPoint().getX() + cameraX,e.getPoint().getY() + cameraY));
 		} else {
-			clicked = true;
 			mouseClick = e.getPoint();
 			mouseCurrent = e.getPoint();
+			clicked = true;
+			previewWanted = true;
+			wake();
 		}
 	}
 
@@ -428,7 +676,8 @@ public class FlickGolf extends JPanel implements MouseListener,MouseMotionListen
 	public void mouseReleased(MouseEvent e) {
 		if(clicked) {
 			clicked = false;
-			ball.setVelocity(new Point2D.Double((mouseCurrent.getX()-mouseClick.getX())/50,(mouseCurrent.getY()-mouseClick.getY())/50));
+			preview.clear();
+			queueInput(new GameInput(GameInput.FLICK,(mouseCurrent.getX()-mouseClick.getX())/FLICK_SCALE,(mouseCurrent.getY()-mouseClick.getY())/FLICK_SCALE));
 		}
 	}
 	
@@ -436,26 +685,107 @@ public class FlickGolf extends JPanel implements MouseListener,MouseMotionListen
 	public void mouseDragged(MouseEvent e) {
 		if (clicked) {
 			mouseCurrent = e.getPoint();
+			previewWanted = true;
 		}
 	}
 
 	
 	
 	
+	/*
+	 * Arguments:	-active		Use active rendering from a GameLoop instead of the Swing Timer.
+	 * 				-fps N		Frames per second drawn in active mode (default: display refresh rate).
+	 * 				-record F	Record the player's input to file F, for InputReplay.
+	 * 				-level L	Play level or world L instead of LEVEL.
+	 * 				-balls N	Play with N balls, Tab switching between them (not in worlds).
+	 * 				-watch D	Reload the level when it or the mapping file is saved under directory D.
+	 */
 	public static void main(String[] args) {
-		FlickGolf game = new FlickGolf();
+		boolean active = false;
+		int fps = 0;
+		String record = null;
+		String level = LEVEL;
+		int ballCount = 1;
+		String watch = null;
+		for (int i=0; i<args.length; i++) {
+			if (args[i].equals("-active")) {
+				active = true;
+			} else if (args[i].equals("-fps") && i+1 < args.length) {
+				fps = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-record") && i+1 < args.length) {
+				record = args[++i];
+			} else if (args[i].equals("-level") && i+1 < args.length) {
+				level = args[++i];
+			} else if (args[i].equals("-balls") && i+1 < args.length) {
+				ballCount = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-watch") && i+1 < args.length) {
+				watch = args[++i];
+			}
+		}
+		
+		final FlickGolf game;
+		try {
+			game = new FlickGolf(level, ballCount);
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.exit(1);
+			return;
+		}
+		if (record != null) {
+			try {
+				game.startRecording(new File(record));
+			} catch (IOException e) {
+				System.out.println("Failed to start recording.");
+				e.printStackTrace();
+			}
+		}
+		if (watch != null) {
+			try {
+				game.watchLevel(new File(watch));
+			} catch (Exception e) {
+				System.out.println("Failed to watch the level.");
+				e.printStackTrace();
+			}
+		}
 		JFrame frame = new JFrame();
 		frame.setTitle("Flick Mini-Golf!");
 		frame.getContentPane().setPreferredSize(new Dimension(Map.WIDTH, Map.HEIGHT));
-		frame.add(game);
+		Canvas canvas = null;
+		if (active) {
+			canvas = new Canvas();
+			canvas.addMouseListener(game);
+			canvas.addMouseMotionListener(game);
+			canvas.addKeyListener(game);
+			canvas.setFocusTraversalKeysEnabled(false);
+			frame.add(canvas);
+		} else {
+			frame.add(game);
+		}
 		
 		frame.pack();		
 		frame.setLocationRelativeTo(null);
 		frame.setVisible(true);
 		frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+		frame.addWindowListener(new WindowAdapter() {
+			public void windowClosing(WindowEvent e) {
+				try {
+					game.stopGame();
+				} catch (InterruptedException e1) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
 		
 		frame.addKeyListener(game);
-		game.playGame();
+		//Tab selects the next ball instead of moving the focus.
+		frame.setFocusTraversalKeysEnabled(false);
+		PhysicsTelemetry.register();
+		if (active) {
+			canvas.requestFocus();
+			game.playGame(canvas, fps);
+		} else {
+			game.playGame();
+		}
 	}
 
 
@@ -0,0 +1,53 @@
+/*
+ * GameInput is one player action to apply to a ball at the start of a physics tick.
+ */
+public class GameInput {
+
+	//Sets the ball's velocity to (x,y), from a flick.
+	public static final int FLICK = 0;
+	//Moves the ball's center to (x,y).
+	public static final int TELEPORT = 1;
+	//Sets the ball's velocity to (x,y), from a nudge with the keyboard.
+	public static final int NUDGE = 2;
+	//Makes ball number x the one the player controls, in games with several balls.
+	public static final int SELECT = 3;
+
+	private int type;
+	private double x, y;
+
+	/*
+	 * Constructor for GameInput object.
+	 *
+	 * @param	type	FLICK, TELEPORT, NUDGE or SELECT.
+	 * @param	x		x velocity or position.
+	 * @param	y		y velocity or position.
+	 */
+	public GameInput(int type, double x, double y) {
+		this.type = type;
+		this.x = x;
+		this.y = y;
+	}
+
+	/*
+	 * Applies the action to a ball. SELECT is up to the game and does nothing here.
+	 */
+	public void applyTo(Ball ball) {
+		if (type == TELEPORT) {
+			ball.setCenter(x, y);
+		} else if (type != SELECT) {
+			ball.setVelocity(x, y);
+		}
+	}
+
+	public int getType() {
+		return type;
+	}
+
+	public double getX() {
+		return x;
+	}
+
+	public double getY() {
+		return y;
+	}
+}
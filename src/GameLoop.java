@@ -0,0 +1,169 @@
+import java.awt.Canvas;
+import java.awt.DisplayMode;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+
+/*
+ * GameLoop drives FlickGolf with active rendering on its own thread.
+ *
+ * Physics runs at a fixed rate using an accumulator, independent of how often frames are drawn.
+ * Frames are drawn through the canvas' BufferStrategy at a configurable rate, interpolating the
+ * ball between the last two physics ticks. When the machine cannot keep up, at most
+ * MAX_TICKS_PER_FRAME ticks are run per frame and the rest of the backlog is dropped, so the game
+ * slows down instead of using ever more CPU.
+ * While the game is idle the thread waits instead of ticking, until woken by input; a frame is
+ * still drawn every IDLE_REDRAW_MILLIS in case the window's contents were lost meanwhile.
+ */
+public class GameLoop implements Runnable {
+
+	//Physics ticks per second; one tick is one PhysicsEngine step of delta 1.
+	public static int TICK_RATE = 300;
+	private static int MAX_TICKS_PER_FRAME = 25;
+	//Longest frame accounted for, larger gaps (debugger, sleep) are treated as this long.
+	private static long MAX_FRAME_NANOS = 250000000L;
+	//Render rate used when the display does not report its refresh rate.
+	private static int DEFAULT_FPS = 60;
+	public static long IDLE_REDRAW_MILLIS = 500;
+
+	private FlickGolf game;
+	private Canvas canvas;
+	private long tickNanos;
+	private long frameNanos;
+
+	private Thread thread;
+	private volatile boolean running;
+	//Set by wake, guarded by idleLock.
+	private Object idleLock = new Object();
+	private boolean woken;
+
+	/*
+	 * Constructor for GameLoop object.
+	 *
+	 * @param	game	Game to update and draw.
+	 * @param	canvas	Displayable canvas to draw on.
+	 * @param	fps		Frames drawn per second, 0 to follow the display's refresh rate.
+	 */
+	public GameLoop(FlickGolf game, Canvas canvas, int fps) {
+		this.game = game;
+		this.canvas = canvas;
+		tickNanos = 1000000000L / TICK_RATE;
+		if (fps <= 0) {
+			fps = getRefreshRate(canvas.getGraphicsConfiguration());
+		}
+		frameNanos = 1000000000L / fps;
+	}
+
+	public void start() {
+		canvas.setIgnoreRepaint(true);
+		canvas.createBufferStrategy(2);
+		running = true;
+		thread = new Thread(this, "game-loop");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() throws InterruptedException {
+		running = false;
+		wake();
+		thread.join();
+	}
+
+	/*
+	 * Ends waiting for input, if the loop is waiting. Safe to call from any thread.
+	 */
+	public void wake() {
+		synchronized (idleLock) {
+			woken = true;
+			idleLock.notifyAll();
+		}
+	}
+
+	public void run() {
+		BufferStrategy strategy = canvas.getBufferStrategy();
+		long last = System.nanoTime();
+		long accumulator = 0;
+		long nextFrame = last;
+		while (running) {
+			long now = System.nanoTime();
+			accumulator += Math.min(now - last, MAX_FRAME_NANOS);
+			last = now;
+
+			int ticks = 0;
+			while (accumulator >= tickNanos && ticks < MAX_TICKS_PER_FRAME) {
+				game.gameUpdate();
+				accumulator -= tickNanos;
+				ticks++;
+			}
+			if (ticks == MAX_TICKS_PER_FRAME && accumulator >= tickNanos) {
+				//Too far behind, drop the backlog.
+				accumulator = 0;
+			}
+
+			render(strategy, (double) accumulator / tickNanos);
+
+			if (game.isIdle()) {
+				try {
+					synchronized (idleLock) {
+						if (!woken) {
+							idleLock.wait(IDLE_REDRAW_MILLIS);
+						}
+						woken = false;
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				//Time spent idle is not simulated.
+				last = System.nanoTime();
+				accumulator = 0;
+				nextFrame = last;
+				continue;
+			}
+
+			//Wait for the next frame, without drifting when a frame is late.
+			nextFrame += frameNanos;
+			long sleep = nextFrame - System.nanoTime();
+			if (sleep > 0) {
+				try {
+					Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+				} catch (InterruptedException e) {
+					return;
+				}
+			} else {
+				nextFrame = System.nanoTime();
+			}
+		}
+	}
+
+	/*
+	 * Draws one frame and shows it, redrawing when the buffer contents were lost.
+	 *
+	 * @param	strategy	Buffers of the canvas.
+	 * @param	alpha		How far between the previous and the current physics tick to draw the ball.
+	 */
+	private void render(BufferStrategy strategy, double alpha) {
+		do {
+			do {
+				Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
+				game.render(g, canvas.getGraphicsConfiguration(), alpha);
+				g.dispose();
+			} while (strategy.contentsRestored());
+			strategy.show();
+		} while (strategy.contentsLost());
+		Toolkit.getDefaultToolkit().sync();
+	}
+
+	/*
+	 * @return	Refresh rate of the display showing the configuration, DEFAULT_FPS if unknown.
+	 */
+	private static int getRefreshRate(GraphicsConfiguration gc) {
+		if (gc != null) {
+			DisplayMode mode = gc.getDevice().getDisplayMode();
+			if (mode != null && mode.getRefreshRate() != DisplayMode.REFRESH_RATE_UNKNOWN) {
+				return mode.getRefreshRate();
+			}
+		}
+		return DEFAULT_FPS;
+	}
+}
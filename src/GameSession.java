@@ -0,0 +1,103 @@
+import java.awt.Point;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * GameSession is the state of one game hosted by a SessionHost: a ball on a shared level.
+ * Its copy of the level's moving obstacles keeps the session's own time, so they only move
+ * while the session is stepped and a game left at rest is paused as a whole.
+ *
+ * Inputs may be submitted from any thread; they are applied by the host at the start of the next tick.
+ * Everything else is only touched by the host's worker that owns the session.
+ */
+public class GameSession {
+
+	private int id;
+	private Ball ball;
+	private PhysicsEngine engine;
+	private ObstacleSet obstacles;
+	private long ticks;
+
+	private ConcurrentLinkedQueue<GameInput> inputs;
+	//Whether the session is waiting in its shard's queue of sessions with new input.
+	AtomicBoolean queued;
+	//Whether the session is in its shard's list of sessions being stepped.
+	boolean active;
+
+	/*
+	 * Constructor for GameSession object.
+	 * Places the ball on the level's starting tile.
+	 *
+	 * @param	id		Identifier of the session in its host.
+	 * @param	level		Collision data of the level, shared between sessions.
+	 * @param	obstacles	Moving obstacles of the level, copied from tick 0; null for none.
+	 */
+	public GameSession(int id, LevelGeometry level, ObstacleSet obstacles) {
+		this.id = id;
+		int r = Map.BALL_RADIUS;
+		Point start = level.getStart();
+		ball = new Ball(new Point(start.x*level.getTileSize() + r, start.y*level.getTileSize() + r), r);
+		engine = new PhysicsEngine(level, ball);
+		if (obstacles != null) {
+			this.obstacles = obstacles.copy(0);
+			engine.setObstacles(this.obstacles);
+		}
+		inputs = new ConcurrentLinkedQueue<GameInput>();
+		queued = new AtomicBoolean(false);
+		active = false;
+	}
+
+	/*
+	 * Queues an input for the next tick.
+	 *
+	 * @return	true if the session was not already waiting for a tick to apply input.
+	 */
+	boolean offer(GameInput input) {
+		inputs.add(input);
+		return queued.compareAndSet(false, true);
+	}
+
+	/*
+	 * Applies all queued inputs to the ball.
+	 */
+	void applyInputs() {
+		queued.set(false);
+		GameInput input;
+		while ((input = inputs.poll()) != null) {
+			input.applyTo(ball);
+		}
+	}
+
+	/*
+	 * Advances the game by one fixed time step.
+	 */
+	void step() {
+		engine.step(1.0);
+		if (obstacles != null) {
+			obstacles.advance();
+		}
+		ticks++;
+	}
+
+	/*
+	 * @return	Whether the ball is moving and the session needs stepping.
+	 */
+	boolean isMoving() {
+		return ball.getVelocity().getX() != 0 || ball.getVelocity().getY() != 0;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public Ball getBall() {
+		return ball;
+	}
+
+	/*
+	 * @return	Number of ticks this session has been stepped.
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+}
@@ -0,0 +1,111 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Histogram counts non-negative values, such as durations in nanoseconds, in logarithmic buckets.
+ *
+ * Each power of two is split into 8 sub-buckets, so percentiles are within 12.5% of the real value
+ * over the whole range while the memory used stays fixed. Safe to record from several threads.
+ */
+public class Histogram {
+
+	private static int SUB_BITS = 3;
+	private static int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private AtomicLongArray buckets;
+	private AtomicLong count, sum, max;
+
+	public Histogram() {
+		buckets = new AtomicLongArray(64*SUB_BUCKETS);
+		count = new AtomicLong();
+		sum = new AtomicLong();
+		max = new AtomicLong();
+	}
+
+	/*
+	 * Adds a value to the histogram. Negative values are counted as 0.
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		buckets.incrementAndGet(getBucket(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	/*
+	 * @return	Index of the bucket holding value.
+	 */
+	private static int getBucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exp - SUB_BITS + 1)*SUB_BUCKETS + sub;
+	}
+
+	/*
+	 * @return	Largest value that falls in the bucket.
+	 */
+	private static long getBucketMax(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exp = bucket/SUB_BUCKETS + SUB_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long lower = (SUB_BUCKETS + sub) << (exp - SUB_BITS);
+		return lower + (1L << (exp - SUB_BITS)) - 1;
+	}
+
+	/*
+	 * @param	percentile	Fraction of values, between 0 and 1.
+	 *
+	 * @return	Value that the given fraction of recorded values are lower than or equal to (bucket precision).
+	 */
+	public long getPercentile(double percentile) {
+		long total = count.get();
+		if (total == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(percentile*total));
+		long seen = 0;
+		for (int i=0; i<buckets.length(); i++) {
+			seen += buckets.get(i);
+			if (seen >= target) {
+				return Math.min(getBucketMax(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long total = count.get();
+		return (total == 0) ? 0 : (double) sum.get() / total;
+	}
+
+	/*
+	 * Forgets all recorded values.
+	 */
+	public void reset() {
+		for (int i=0; i<buckets.length(); i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+}
@@ -0,0 +1,99 @@
+import java.util.Arrays;
+
+/*
+ * ImpactBatch holds the segments of one collision check packed into parallel arrays,
+ * so an ImpactKernel can process all of them in bulk, and the times of impact computed for them.
+ *
+ * The arrays are read and written directly by the kernels; they are longer than count.
+ */
+public class ImpactBatch {
+
+	//Segments, with their direction and offset to either side at ball radius.
+	double[] x1, y1, x2, y2, dx, dy, ox, oy;
+
+	/*
+	 * Times of impact: against the line on the -offset and +offset side,
+	 * and the near and far root against the circle around either end point.
+	 */
+	double[] lineMinus, linePlus, cap1Near, cap1Far, cap2Near, cap2Far;
+
+	int count;
+
+	//Number of segments in the batch after each tile, in the order the tiles were added.
+	private int[] tileEnds;
+	private int tileCount;
+
+	public ImpactBatch() {
+		tileEnds = new int[16];
+		allocate(32);
+	}
+
+	private void allocate(int capacity) {
+		x1 = grow(x1, capacity);
+		y1 = grow(y1, capacity);
+		x2 = grow(x2, capacity);
+		y2 = grow(y2, capacity);
+		dx = grow(dx, capacity);
+		dy = grow(dy, capacity);
+		ox = grow(ox, capacity);
+		oy = grow(oy, capacity);
+		lineMinus = grow(lineMinus, capacity);
+		linePlus = grow(linePlus, capacity);
+		cap1Near = grow(cap1Near, capacity);
+		cap1Far = grow(cap1Far, capacity);
+		cap2Near = grow(cap2Near, capacity);
+		cap2Far = grow(cap2Far, capacity);
+	}
+
+	private static double[] grow(double[] array, int capacity) {
+		return (array == null) ? new double[capacity] : Arrays.copyOf(array, capacity);
+	}
+
+	/*
+	 * Empties the batch.
+	 */
+	public void clear() {
+		count = 0;
+		tileCount = 0;
+	}
+
+	/*
+	 * Appends every segment of a tile.
+	 *
+	 * @param	geometry	Level the tile is in.
+	 * @param	tile		Index of the tile in the level.
+	 */
+	public void addTile(LevelGeometry geometry, int tile) {
+		int start = geometry.getSegmentStart(tile);
+		int end = geometry.getSegmentEnd(tile);
+		if (count + end - start > x1.length) {
+			allocate(Math.max(x1.length*2, count + end - start));
+		}
+		for (int seg=start; seg<end; seg++) {
+			x1[count] = geometry.getSegmentX1(seg);
+			y1[count] = geometry.getSegmentY1(seg);
+			x2[count] = geometry.getSegmentX2(seg);
+			y2[count] = geometry.getSegmentY2(seg);
+			dx[count] = geometry.getSegmentDX(seg);
+			dy[count] = geometry.getSegmentDY(seg);
+			ox[count] = geometry.getSegmentOffsetX(seg);
+			oy[count] = geometry.getSegmentOffsetY(seg);
+			count++;
+		}
+		if (tileCount == tileEnds.length) {
+			tileEnds = Arrays.copyOf(tileEnds, tileCount*2);
+		}
+		tileEnds[tileCount++] = count;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	/*
+	 * @return	Index after the last segment of the i-th tile added.
+	 */
+	public int getTileEnd(int i) {
+		return tileEnds[i];
+	}
+}
@@ -0,0 +1,21 @@
+/*
+ * ImpactKernel computes the times of impact of the ball against every segment of an ImpactBatch.
+ *
+ * Implementations only compute; picking the earliest hit stays in PhysicsEngine, so every kernel
+ * must produce bit-identical times for the engine to behave the same whichever one is used.
+ * ScalarImpactKernel is always available, VectorImpactKernel (vector source folder) needs the
+ * jdk.incubator.vector module.
+ */
+public interface ImpactKernel {
+
+	/*
+	 * Fills the time of impact arrays of the batch for a ball moving from start by vel.
+	 * Times are fractions of vel, NaN where there is no impact.
+	 *
+	 * @param	batch			Segments to test, results are written back to it.
+	 * @param	startX, startY	Center of the ball.
+	 * @param	velX, velY		Movement of the ball.
+	 * @param	radius			Radius of the ball.
+	 */
+	public void computeImpacts(ImpactBatch batch, double startX, double startY, double velX, double velY, double radius);
+}
@@ -0,0 +1,162 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/*
+ * InputRecorder writes a game's player input to a compact binary log that InputReplay can
+ * play back headless.
+ *
+ * Every input is stored with the tick it was applied in. A checksum of the ball's state is
+ * stored every CHECKSUM_INTERVAL ticks and when the recording ends, so a replay can tell
+ * exactly where it stopped matching the original game.
+ *
+ * Layout (big-endian): magic "FGIR", format version, level name (modified UTF-8), ball radius,
+ * rolling friction and sleep speed as doubles (version 2, version 1 logs were recorded without
+ * friction), number of balls (version 3, earlier logs have one), then records of a kind byte and the tick as a varint delta from the previous record:
+ * 	INPUT		input type byte, x and y as doubles
+ * 	CHECKSUM	checksum of the balls after the tick, as a long
+ * 	END			final checksum, as a long
+ */
+public class InputRecorder {
+
+	public static String EXTENSION = ".fgr";
+	public static int CHECKSUM_INTERVAL = 300;
+
+	static int MAGIC = 0x46474952;
+	static int VERSION = 3;
+	static int INPUT = 0;
+	static int CHECKSUM = 1;
+	static int END = 2;
+
+	private DataOutputStream out;
+	private long lastTick;
+	private boolean closed;
+
+	/*
+	 * Constructor for InputRecorder object.
+	 * Starts a new log, replacing the file if it exists.
+	 *
+	 * @param	file		File to write to.
+	 * @param	levelName	Name of the level being played.
+	 * @param	radius		Radius of the balls.
+	 * @param	engine		Engine simulating a ball, for its friction.
+	 * @param	ballCount	Number of balls in the game.
+	 */
+	public InputRecorder(File file, String levelName, int radius, PhysicsEngine engine, int ballCount) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(levelName);
+		out.writeInt(radius);
+		out.writeDouble(engine.getFriction());
+		out.writeDouble(engine.getSleepSpeed());
+		out.writeInt(ballCount);
+	}
+
+	/*
+	 * Records an input applied at the start of a tick.
+	 *
+	 * @param	tick	Number of ticks completed before the input was applied.
+	 */
+	public synchronized void recordInput(long tick, GameInput input) throws IOException {
+		if (closed) {
+			return;
+		}
+		writeRecord(INPUT, tick);
+		out.writeByte(input.getType());
+		out.writeDouble(input.getX());
+		out.writeDouble(input.getY());
+	}
+
+	/*
+	 * Called after every tick, records a checksum every CHECKSUM_INTERVAL ticks.
+	 *
+	 * @param	tick	Number of ticks completed.
+	 * @param	balls	Balls after the tick.
+	 */
+	public synchronized void tickDone(long tick, Ball[] balls) throws IOException {
+		if (closed || tick % CHECKSUM_INTERVAL != 0) {
+			return;
+		}
+		writeRecord(CHECKSUM, tick);
+		out.writeLong(checksum(balls));
+	}
+
+	/*
+	 * Ends the log with the final state of the balls and closes the file.
+	 *
+	 * @param	tick	Number of ticks completed.
+	 * @param	balls	Balls after the last tick.
+	 */
+	public synchronized void close(long tick, Ball[] balls) throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			writeRecord(END, tick);
+			out.writeLong(checksum(balls));
+		} finally {
+			out.close();
+		}
+	}
+
+	private void writeRecord(int kind, long tick) throws IOException {
+		out.writeByte(kind);
+		writeVarLong(out, tick - lastTick);
+		lastTick = tick;
+	}
+
+	/*
+	 * @return	Hash of the exact position and velocity of the ball.
+	 */
+	public static long checksum(Ball ball) {
+		return checksum(0xCBF29CE484222325L, ball);
+	}
+
+	/*
+	 * @return	Hash of the exact positions and velocities of the balls, in order.
+	 *			The same as checksum(Ball) for a single ball.
+	 */
+	public static long checksum(Ball[] balls) {
+		long hash = 0xCBF29CE484222325L;
+		for (Ball ball : balls) {
+			hash = checksum(hash, ball);
+		}
+		return hash;
+	}
+
+	private static long checksum(long hash, Ball ball) {
+		hash = (hash ^ Double.doubleToLongBits(ball.getCircle().getCenterX())) * 0x100000001B3L;
+		hash = (hash ^ Double.doubleToLongBits(ball.getCircle().getCenterY())) * 0x100000001B3L;
+		hash = (hash ^ Double.doubleToLongBits(ball.getVelocity().getX())) * 0x100000001B3L;
+		hash = (hash ^ Double.doubleToLongBits(ball.getVelocity().getY())) * 0x100000001B3L;
+		return hash;
+	}
+
+	/*
+	 * Writes a non-negative value 7 bits per byte, low bits first.
+	 */
+	static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift=0; shift<64; shift+=7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+}
@@ -0,0 +1,186 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+ * InputReplay plays back logs written by InputRecorder, headless and as fast as possible.
+ *
+ * Each log is run through a fresh FlickGolf: inputs are queued at the tick they were recorded in
+ * and the game is updated tick by tick, exactly as it was while playing. Every recorded checksum
+ * is compared with the replayed ball, so a directory of logs works as a regression corpus, and
+ * the ticks per second reached make a benchmark based on real play.
+ *
+ * Usage: java -Djava.awt.headless=true InputReplay (log file | directory of logs)...
+ * Exits with status 1 if any log fails to replay identically.
+ */
+public class InputReplay {
+
+	private File file;
+	private long ticks;
+	private int inputs;
+	private int checksums;
+	private long nanos;
+	//Tick of the first checksum that did not match, -1 if all matched.
+	private long mismatchTick = -1;
+
+	/*
+	 * Constructor for InputReplay object.
+	 *
+	 * @param	file	Log to replay.
+	 */
+	public InputReplay(File file) {
+		this.file = file;
+	}
+
+	/*
+	 * Replays the whole log, stopping at the first checksum that does not match.
+	 *
+	 * @return	Whether every checksum matched.
+	 */
+	public boolean run() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		FlickGolf game = null;
+		try {
+			if (in.readInt() != InputRecorder.MAGIC) {
+				throw new IOException("Not an input recording: " + file);
+			}
+			int version = in.readInt();
+			if (version < 1 || version > InputRecorder.VERSION) {
+				throw new IOException("Unsupported recording version " + version + ": " + file);
+			}
+			String levelName = in.readUTF();
+			int radius = in.readInt();
+			if (radius != Map.BALL_RADIUS) {
+				throw new IOException("Recorded with ball radius " + radius + ": " + file);
+			}
+
+			double friction = 0, sleepSpeed = 0;
+			if (version >= 2) {
+				friction = in.readDouble();
+				sleepSpeed = in.readDouble();
+			}
+			int ballCount = (version >= 3) ? in.readInt() : 1;
+			try {
+				game = new FlickGolf(levelName, ballCount);
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Cannot replay " + file + ": " + e.getMessage(), e);
+			}
+			game.setFriction(friction, sleepSpeed);
+			long start = System.nanoTime();
+			long tick = 0;
+			while (true) {
+				int kind = in.readUnsignedByte();
+				tick += InputRecorder.readVarLong(in);
+				while (game.getTick() < tick) {
+					game.gameUpdate();
+					tickDone(game);
+				}
+				if (kind == InputRecorder.INPUT) {
+					game.queueInput(new GameInput(in.readUnsignedByte(), in.readDouble(), in.readDouble()));
+					inputs++;
+				} else if (kind == InputRecorder.CHECKSUM || kind == InputRecorder.END) {
+					checksums++;
+					if (in.readLong() != InputRecorder.checksum(game.getBalls())) {
+						mismatchTick = tick;
+						break;
+					}
+					if (kind == InputRecorder.END) {
+						break;
+					}
+				} else {
+					throw new IOException("Corrupt recording: " + file);
+				}
+			}
+			nanos = System.nanoTime() - start;
+			ticks = game.getTick();
+		} finally {
+			in.close();
+			if (game != null) {
+				try {
+					game.stopGame();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		return mismatchTick < 0;
+	}
+
+	/*
+	 * Called after every tick replayed, with the game as it is at the end of the tick.
+	 * Does nothing here; BatchRenderer draws the replay's frames from it.
+	 */
+	protected void tickDone(FlickGolf game) throws IOException {
+	}
+
+	public long getTicks() {
+		return ticks;
+	}
+
+	public int getInputs() {
+		return inputs;
+	}
+
+	/*
+	 * @return	Tick of the first checksum that did not match, -1 if all matched.
+	 */
+	public long getMismatchTick() {
+		return mismatchTick;
+	}
+
+	/*
+	 * @return	Ticks replayed per second.
+	 */
+	public double getTicksPerSecond() {
+		return (nanos == 0) ? 0 : ticks / (nanos / 1E9);
+	}
+
+	public static void main(String[] args) {
+		ArrayList<File> files = new ArrayList<File>();
+		for (String arg : args) {
+			File file = new File(arg);
+			File[] logs = file.listFiles();
+			if (logs == null) {
+				files.add(file);
+			} else {
+				Arrays.sort(logs);
+				for (File log : logs) {
+					if (log.getName().endsWith(InputRecorder.EXTENSION)) {
+						files.add(log);
+					}
+				}
+			}
+		}
+
+		int failed = 0;
+		long totalTicks = 0;
+		long start = System.nanoTime();
+		for (File file : files) {
+			InputReplay replay = new InputReplay(file);
+			try {
+				if (replay.run()) {
+					System.out.printf("ok        %s: %d ticks, %d inputs, %d checksums (%.0f ticks/s)%n", file,
+							replay.getTicks(), replay.getInputs(), replay.checksums, replay.getTicksPerSecond());
+				} else {
+					failed++;
+					System.out.printf("MISMATCH  %s: first differs at tick %d%n", file, replay.getMismatchTick());
+				}
+				totalTicks += replay.getTicks();
+			} catch (IOException e) {
+				failed++;
+				System.out.println("Failed to replay " + file);
+				e.printStackTrace();
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1E9;
+		System.out.printf("%d of %d replays matched, %d ticks in %.2f s (%.0f ticks/s)%n",
+				files.size() - failed, files.size(), totalTicks, seconds, totalTicks / seconds);
+		if (failed > 0) {
+			System.exit(1);
+		}
+	}
+}
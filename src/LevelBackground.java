@@ -0,0 +1,110 @@
+import java.awt.AlphaComposite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+
+/*
+ * LevelBackground is the pre-drawn image of the level currently loaded in a Map.
+ *
+ * Kept in a VolatileImage so drawing it each frame is a single accelerated blit. The image is
+ * redrawn from the map when a different level is loaded, only where it changed if the level was
+ * reloaded, and revalidated automatically whenever the accelerated surface is lost or no longer
+ * matches the screen. Falls back to a BufferedImage when there is no screen (headless).
+ */
+public class LevelBackground {
+
+	private Map map;
+	private VolatileImage volatileImage;
+	private BufferedImage bufferedImage;
+	//Level each image was last drawn for.
+	private LevelGeometry volatileLevel, bufferedLevel;
+
+	public LevelBackground(Map map) {
+		this.map = map;
+	}
+
+	/*
+	 * Draws the background at the origin.
+	 *
+	 * @param	g	Graphics to draw on.
+	 * @param	gc	Configuration of the screen being drawn to, null if none.
+	 */
+	public void draw(Graphics g, GraphicsConfiguration gc) {
+		if (gc == null) {
+			g.drawImage(getImage(), 0, 0, null);
+			return;
+		}
+		do {
+			int valid = (volatileImage == null) ? VolatileImage.IMAGE_INCOMPATIBLE : volatileImage.validate(gc);
+			if (valid == VolatileImage.IMAGE_INCOMPATIBLE) {
+				if (volatileImage != null) {
+					volatileImage.flush();
+				}
+				volatileImage = gc.createCompatibleVolatileImage(Map.WIDTH, Map.HEIGHT, Transparency.OPAQUE);
+				valid = VolatileImage.IMAGE_RESTORED;
+			}
+			if (valid == VolatileImage.IMAGE_RESTORED) {
+				volatileLevel = render(volatileImage);
+			} else if (volatileLevel != map.getGeometry()) {
+				volatileLevel = update(volatileImage, volatileLevel);
+			}
+			g.drawImage(volatileImage, 0, 0, null);
+		} while (volatileImage.contentsLost());
+	}
+
+	/*
+	 * @return	Unaccelerated copy of the background, for headless use.
+	 */
+	public BufferedImage getImage() {
+		if (bufferedImage == null) {
+			bufferedImage = new BufferedImage(Map.WIDTH, Map.HEIGHT, BufferedImage.TYPE_INT_ARGB);
+		}
+		if (bufferedLevel != map.getGeometry()) {
+			bufferedLevel = update(bufferedImage, bufferedLevel);
+		}
+		return bufferedImage;
+	}
+
+	/*
+	 * Brings the image up to date with the map's current level, only drawing the part that
+	 * changed when the level was reloaded from the one drawn.
+	 *
+	 * @param	drawn	Level the image was last drawn for, null if none.
+	 *
+	 * @return	Level that was drawn.
+	 */
+	private LevelGeometry update(Image image, LevelGeometry drawn) {
+		LevelGeometry level = map.getGeometry();
+		Rectangle area = map.getChangedArea(drawn);
+		if (drawn == null || area == null) {
+			return render(image);
+		}
+		Graphics2D g = (Graphics2D) image.getGraphics();
+		g.clip(area);
+		//Clear first, as a fresh image is: tiles are translucent.
+		g.setComposite(AlphaComposite.Clear);
+		g.fill(area);
+		g.setComposite(AlphaComposite.SrcOver);
+		map.draw(g, area);
+		g.dispose();
+		return level;
+	}
+
+	/*
+	 * Draws the map's current level into the image.
+	 *
+	 * @return	Level that was drawn.
+	 */
+	private LevelGeometry render(Image image) {
+		LevelGeometry level = map.getGeometry();
+		Graphics2D g = (Graphics2D) image.getGraphics();
+		map.draw(g);
+		g.dispose();
+		return level;
+	}
+}
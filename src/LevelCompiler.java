@@ -0,0 +1,89 @@
+import java.io.File;
+import java.io.IOException;
+
+/*
+ * LevelCompiler converts CSV levels into compiled levels (see LevelFile) offline.
+ *
+ * Each level is loaded through Map, as the game would, and its geometry is written under the
+ * output directory with the same name and the .lvl extension. With -O the geometry is first
+ * simplified by a SegmentOptimizer, reporting the segments and caps before and after.
+ *
+ * Usage: java -Djava.awt.headless=true LevelCompiler [-O] [-d output directory] level.csv...
+ * 	e.g. java -Djava.awt.headless=true -cp bin LevelCompiler -O -d src Assets/level1.csv
+ */
+public class LevelCompiler {
+
+	/*
+	 * Compiles one level as loaded.
+	 *
+	 * @param	levelName	Name of level to compile (CSV file on the classpath)
+	 * @param	outDir		Directory the compiled level is written under.
+	 *
+	 * @return	The compiled file.
+	 */
+	public static File compile(String levelName, File outDir) throws IOException {
+		return compile(levelName, outDir, null);
+	}
+
+	/*
+	 * Compiles one level.
+	 *
+	 * @param	levelName	Name of level to compile (CSV file on the classpath)
+	 * @param	outDir		Directory the compiled level is written under.
+	 * @param	optimizer	Optimizer to simplify the geometry with, null to keep it as loaded.
+	 *
+	 * @return	The compiled file.
+	 */
+	public static File compile(String levelName, File outDir, SegmentOptimizer optimizer) throws IOException {
+		Map map = new Map();
+		if (!map.loadLevel(levelName)) {
+			throw new IOException("Failed to load level: " + levelName);
+		}
+		LevelGeometry geometry = map.getGeometry();
+		if (map.getObstacles() != null) {
+			System.out.println(levelName + ": moving obstacles are not compiled, play the CSV level to have them.");
+		}
+		if (optimizer != null) {
+			geometry = optimizer.optimize(geometry);
+		}
+		String name = levelName;
+		if (name.endsWith(".csv")) {
+			name = name.substring(0, name.length()-4);
+		}
+		File out = new File(outDir, name + LevelFile.EXTENSION);
+		if (out.getParentFile() != null) {
+			out.getParentFile().mkdirs();
+		}
+		LevelFile.write(geometry, out);
+		return out;
+	}
+
+	public static void main(String[] args) {
+		File outDir = new File(".");
+		SegmentOptimizer optimizer = null;
+		for (int i=0; i<args.length; i++) {
+			if (args[i].equals("-d") && i+1 < args.length) {
+				outDir = new File(args[++i]);
+				continue;
+			}
+			if (args[i].equals("-O")) {
+				optimizer = new SegmentOptimizer();
+				continue;
+			}
+			try {
+				File out = compile(args[i], outDir, optimizer);
+				if (optimizer != null) {
+					System.out.printf("%s: %d -> %d segments, %d -> %d caps%n", args[i],
+							optimizer.getSegmentsBefore(), optimizer.getSegmentsAfter(),
+							optimizer.getCapsBefore(), optimizer.getCapsAfter());
+				}
+				LevelGeometry level = LevelFile.read(out);
+				System.out.printf("%s -> %s (%d tiles, %d segments, %d bytes)%n",
+						args[i], out, level.getTileCount(), level.getSegmentCount(), out.length());
+			} catch (IOException e) {
+				System.out.println("Failed to compile " + args[i]);
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,197 @@
+import java.awt.Point;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * LevelFile reads and writes compiled levels, the binary form of a LevelGeometry.
+ *
+ * A compiled level holds the tile ids, the packed segments and the start tile, so loading one
+ * is a bulk copy of arrays out of a memory-mapped file instead of parsing CSV.
+ * Levels are compiled offline with LevelCompiler.
+ *
+ * Layout (big-endian):
+ * 	int		magic "FGLV"
+ * 	int		format version
+ * 	int		cols, rows, tileSize, startX, startY, segment count
+ * 	double	radius the walls were expanded for
+ * 	int[]	tile id of every tile (cols*rows)
+ * 	int[]	tile offsets (cols*rows+1)
+ * 	double[]	segX1, segY1, segX2, segY2 (segment count each)
+ * 	byte	1 if cap flags follow, 0 if every cap is tested
+ * 	byte[]	cap flags of every segment (segment count), if present
+ *
+ * Segments past the last tile offset are freeform segments (version 2); their SegmentBVH is
+ * rebuilt when the level is read. Cap flags were added in version 3, for levels optimized by
+ * SegmentOptimizer. Files of earlier versions are still read. A file whose tile size is not
+ * Map.TILESIZE, or with a tile id the mapping file does not define, is rejected as corrupt.
+ */
+public class LevelFile {
+
+	public static String EXTENSION = ".lvl";
+	private static int MAGIC = 0x46474C56;
+	private static int VERSION = 3;
+	private static int HEADER_SIZE = 4*8 + 8;
+
+	/*
+	 * Writes a level in the compiled format.
+	 *
+	 * @param	level	Level to write.
+	 * @param	file	File to write to, replaced if it exists.
+	 */
+	public static void write(LevelGeometry level, File file) throws IOException {
+		int tiles = level.getTileCount();
+		int segs = level.getSegmentCount();
+		Point start = level.getStart();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(level.getCols());
+			out.writeInt(level.getRows());
+			out.writeInt(level.getTileSize());
+			out.writeInt(start.x);
+			out.writeInt(start.y);
+			out.writeInt(segs);
+			out.writeDouble(level.getRadius());
+			for (int i=0; i<tiles; i++) {
+				out.writeInt(level.getTile(i));
+			}
+			for (int i=0; i<tiles; i++) {
+				out.writeInt(level.getSegmentStart(i));
+			}
+			out.writeInt(level.getFreeformStart());
+			for (int i=0; i<segs; i++) {
+				out.writeDouble(level.getSegmentX1(i));
+			}
+			for (int i=0; i<segs; i++) {
+				out.writeDouble(level.getSegmentY1(i));
+			}
+			for (int i=0; i<segs; i++) {
+				out.writeDouble(level.getSegmentX2(i));
+			}
+			for (int i=0; i<segs; i++) {
+				out.writeDouble(level.getSegmentY2(i));
+			}
+			out.writeByte(level.hasSegmentCaps() ? 1 : 0);
+			if (level.hasSegmentCaps()) {
+				for (int i=0; i<segs; i++) {
+					out.writeByte(level.getSegmentCaps(i));
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/*
+	 * Reads a compiled level by memory-mapping the file.
+	 */
+	public static LevelGeometry read(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), file.toString());
+		} finally {
+			channel.close();
+		}
+	}
+
+	/*
+	 * Reads a compiled level from a URL, memory-mapped when it is a plain file (not inside a jar).
+	 */
+	public static LevelGeometry read(URL url) throws IOException {
+		if (url.getProtocol().equals("file")) {
+			try {
+				return read(Paths.get(url.toURI()).toFile());
+			} catch (URISyntaxException e) {
+				//Fall back to reading the stream.
+			}
+		}
+		InputStream in = url.openStream();
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				bytes.write(buffer, 0, read);
+			}
+			return read(ByteBuffer.wrap(bytes.toByteArray()), url.toString());
+		} finally {
+			in.close();
+		}
+	}
+
+	/*
+	 * Copies the packed arrays out of a compiled level.
+	 *
+	 * @param	data	Contents of the file, read from its current position.
+	 * @param	name	Name of the file, for error messages.
+	 */
+	private static LevelGeometry read(ByteBuffer data, String name) throws IOException {
+		if (data.remaining() < HEADER_SIZE || data.getInt() != MAGIC) {
+			throw new IOException("Not a compiled level: " + name);
+		}
+		int version = data.getInt();
+		if (version < 1 || version > VERSION) {
+			throw new IOException("Unsupported level version " + version + ": " + name);
+		}
+		int cols = data.getInt();
+		int rows = data.getInt();
+		int tileSize = data.getInt();
+		Point start = new Point(data.getInt(), data.getInt());
+		int segs = data.getInt();
+		double radius = data.getDouble();
+		//In longs, so a corrupt size cannot overflow into one that seems to fit.
+		long tileCount = (long) cols*rows;
+		//Levels are drawn at the map's tile size, so they must collide at it too.
+		if (cols <= 0 || rows <= 0 || tileSize != Map.TILESIZE || segs < 0 || tileCount > Integer.MAX_VALUE
+				|| data.remaining() < (tileCount*2+1)*4 + segs*4*8L) {
+			throw new IOException("Corrupt compiled level: " + name);
+		}
+		int tiles = (int) tileCount;
+
+		int[] level = new int[tiles];
+		int[] tileOffsets = new int[tiles+1];
+		data.asIntBuffer().get(level).get(tileOffsets);
+		data.position(data.position() + (tiles*2+1)*4);
+		double[] segX1 = new double[segs];
+		double[] segY1 = new double[segs];
+		double[] segX2 = new double[segs];
+		double[] segY2 = new double[segs];
+		data.asDoubleBuffer().get(segX1).get(segY1).get(segX2).get(segY2);
+		data.position(data.position() + segs*4*8);
+		byte[] segCaps = null;
+		if (version >= 3) {
+			if (data.remaining() < 1) {
+				throw new IOException("Corrupt compiled level: " + name);
+			}
+			if (data.get() != 0) {
+				segCaps = new byte[Math.min(segs, data.remaining())];
+				data.get(segCaps);
+			}
+		}
+		if (tileOffsets[0] != 0 || tileOffsets[tiles] > segs || data.remaining() != 0
+				|| (segCaps != null && segCaps.length != segs)) {
+			throw new IOException("Corrupt compiled level: " + name);
+		}
+		//Every tile's segments lie between its offset and the next one, and its image is in the tileset.
+		TileRegistry registry = TileRegistry.get();
+		for (int i=0; i<tiles; i++) {
+			if (tileOffsets[i] > tileOffsets[i+1] || !registry.isDefined(level[i])) {
+				throw new IOException("Corrupt compiled level: " + name);
+			}
+		}
+		return new LevelGeometry(0, 0, cols, rows, tileSize, level, tileOffsets, segX1, segY1, segX2, segY2,
+				segCaps, start, radius);
+	}
+}
@@ -0,0 +1,488 @@
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+
+/*
+ * LevelGeometry is the immutable collision data of a loaded level.
+ *
+ * Holds the tile grid and the line segments of every tile, expanded for one ball radius.
+ * Never changes once built, so any number of engines and threads can share one instance.
+ * May also be a window onto part of a larger world, starting at a tile origin; tiles outside
+ * the window are treated as empty and segments are always in world coordinates.
+ * Segments after those of the last tile are freeform segments, not bound to any tile, which are
+ * found through a SegmentBVH instead of the grid.
+ * A DistanceField over all segments can be sampled once built, for quick distance to wall lookups.
+ * Optimized levels (see SegmentOptimizer) also say which end point caps of each segment need testing.
+ */
+public class LevelGeometry {
+
+	//Cap flags of a segment: test the circle around its first and its second end point.
+	public static final int CAP_1 = 1;
+	public static final int CAP_2 = 2;
+
+	private int originCol, originRow;
+	private int cols, rows, tileSize;
+	private int[] level;
+	private int startX, startY;
+
+	/*
+	 * Line segments of all tiles in compressed sparse row layout:
+	 * the segments of tile i are indices tileOffsets[i] to tileOffsets[i+1]-1 of the packed arrays.
+	 */
+	private int[] tileOffsets;
+	private double[] segX1, segY1, segX2, segY2, segDX, segDY;
+	//Cap flags of every segment, null if every cap is tested.
+	private byte[] segCaps;
+	//Index of the first freeform segment, and the tree over them (leaf k is cell level.length+k).
+	private int freeformStart;
+	private SegmentBVH bvh;
+	//Distance to the nearest segment, null until built; independent of the radius, so copies use their source's.
+	private LevelGeometry fieldOwner;
+	private volatile DistanceField field;
+
+	//Offset to either side of each segment at ball radius.
+	private double radius;
+	private double[] segOX, segOY;
+
+	/*
+	 * Constructor for LevelGeometry object.
+	 * The arrays are used as they are and must not be modified afterwards.
+	 *
+	 * @param	cols		Number of tile columns.
+	 * @param	rows		Number of tile rows.
+	 * @param	tileSize	Size of a tile in pixels.
+	 * @param	level		Tile id of every tile, row by row.
+	 * @param	tileOffsets	First segment of every tile, plus the end of the last tile's segments at the end.
+	 * @param	segX1		x of first point of every segment, tile segments followed by any freeform ones.
+	 * @param	segY1		y of first point of every segment.
+	 * @param	segX2		x of second point of every segment.
+	 * @param	segY2		y of second point of every segment.
+	 * @param	start		Starting tile for Ball.
+	 * @param	radius		Radius of the ball the walls are expanded for.
+	 */
+	public LevelGeometry(int cols, int rows, int tileSize, int[] level, int[] tileOffsets,
+			double[] segX1, double[] segY1, double[] segX2, double[] segY2, Point start, double radius) {
+		this(0, 0, cols, rows, tileSize, level, tileOffsets, segX1, segY1, segX2, segY2, start, radius);
+	}
+
+	/*
+	 * Constructor for a LevelGeometry object that is a window onto a larger world.
+	 *
+	 * @param	originCol	World column of the window's first tile.
+	 * @param	originRow	World row of the window's first tile.
+	 * (other parameters as above, start in world tiles)
+	 */
+	public LevelGeometry(int originCol, int originRow, int cols, int rows, int tileSize, int[] level, int[] tileOffsets,
+			double[] segX1, double[] segY1, double[] segX2, double[] segY2, Point start, double radius) {
+		this(originCol, originRow, cols, rows, tileSize, level, tileOffsets, segX1, segY1, segX2, segY2, null, start, radius);
+	}
+
+	/*
+	 * Constructor for a LevelGeometry object that only tests some end point caps.
+	 *
+	 * @param	segCaps		CAP_1 and CAP_2 flags of every segment, null to test every cap.
+	 * (other parameters as above)
+	 */
+	public LevelGeometry(int originCol, int originRow, int cols, int rows, int tileSize, int[] level, int[] tileOffsets,
+			double[] segX1, double[] segY1, double[] segX2, double[] segY2, byte[] segCaps, Point start, double radius) {
+		this.originCol = originCol;
+		this.originRow = originRow;
+		this.cols = cols;
+		this.rows = rows;
+		this.tileSize = tileSize;
+		this.level = level;
+		this.segX1 = segX1;
+		this.segY1 = segY1;
+		this.segX2 = segX2;
+		this.segY2 = segY2;
+		this.segCaps = segCaps;
+		startX = start.x;
+		startY = start.y;
+
+		//Index the freeform segments, reordering them into leaves that follow the tiles as extra cells.
+		freeformStart = tileOffsets[level.length];
+		bvh = new SegmentBVH(segX1, segY1, segX2, segY2, segCaps, freeformStart, segX1.length - freeformStart);
+		if (bvh.getLeafCount() > 0) {
+			tileOffsets = Arrays.copyOf(tileOffsets, level.length + 1 + bvh.getLeafCount());
+			for (int i=0; i<bvh.getLeafCount(); i++) {
+				tileOffsets[level.length + 1 + i] = freeformStart + bvh.getLeafEnd(i);
+			}
+		}
+		this.tileOffsets = tileOffsets;
+		segDX = new double[segX1.length];
+		segDY = new double[segX1.length];
+		for (int i=0; i<segX1.length; i++) {
+			segDX[i] = segX2[i]-segX1[i];
+			segDY[i] = segY2[i]-segY1[i];
+		}
+		buildWalls(radius);
+		fieldOwner = this;
+	}
+
+	/*
+	 * Constructor for a copy of another geometry expanded for a different radius.
+	 */
+	private LevelGeometry(LevelGeometry other, double radius) {
+		originCol = other.originCol;
+		originRow = other.originRow;
+		cols = other.cols;
+		rows = other.rows;
+		tileSize = other.tileSize;
+		level = other.level;
+		startX = other.startX;
+		startY = other.startY;
+		tileOffsets = other.tileOffsets;
+		freeformStart = other.freeformStart;
+		bvh = other.bvh;
+		fieldOwner = other.fieldOwner;
+		segX1 = other.segX1;
+		segY1 = other.segY1;
+		segX2 = other.segX2;
+		segY2 = other.segY2;
+		segCaps = other.segCaps;
+		segDX = other.segDX;
+		segDY = other.segDY;
+		buildWalls(radius);
+	}
+
+	/*
+	 * Creates an empty level with no walls.
+	 *
+	 * @param	cols		Number of tile columns.
+	 * @param	rows		Number of tile rows.
+	 * @param	tileSize	Size of a tile in pixels.
+	 * @param	start		Starting tile for Ball.
+	 * @param	radius		Radius of the ball the walls are expanded for.
+	 */
+	public static LevelGeometry empty(int cols, int rows, int tileSize, Point start, double radius) {
+		double[] none = new double[0];
+		return new LevelGeometry(cols, rows, tileSize, new int[cols*rows], new int[cols*rows+1],
+				none, none, none, none, start, radius);
+	}
+
+	/*
+	 * Precomputes the collision geometry of every segment expanded by the given radius.
+	 * For each line the offset to the two lines at radius distance is derived once, so the
+	 * narrow phase does no normalisation per step. The endpoints are the corner caps.
+	 *
+	 * @param	radius	Radius of the ball that will be tested against the walls.
+	 */
+	private void buildWalls(double radius) {
+		double len;
+		segOX = new double[segX1.length];
+		segOY = new double[segX1.length];
+		for (int i=0; i<segX1.length; i++) {
+			len = Math.sqrt((segDX[i]*segDX[i])+(segDY[i]*segDY[i]));
+			segOX[i] = radius*segDY[i]/len;
+			segOY[i] = -radius*segDX[i]/len;
+		}
+		this.radius = radius;
+	}
+
+	/*
+	 * @param	radius	Radius of the ball that will be tested against the walls.
+	 *
+	 * @return	This geometry if it is already expanded for radius, otherwise a copy that is.
+	 */
+	public LevelGeometry withRadius(double radius) {
+		if (radius == this.radius) {
+			return this;
+		}
+		return new LevelGeometry(this, radius);
+	}
+
+	public double getRadius() {
+		return radius;
+	}
+
+	/*
+	 * @return	World column of the first tile, 0 unless this is a window onto a world.
+	 */
+	public int getOriginCol() {
+		return originCol;
+	}
+
+	/*
+	 * @return	World row of the first tile, 0 unless this is a window onto a world.
+	 */
+	public int getOriginRow() {
+		return originRow;
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/*
+	 * @return	Number of tiles in the level.
+	 */
+	public int getTileCount() {
+		return level.length;
+	}
+
+	/*
+	 * @param	tile	Position of tile in the level.
+	 *
+	 * @return	Tile id (tileset index) of the tile.
+	 */
+	public int getTile(int tile) {
+		return level[tile];
+	}
+
+	/*
+	 * @return		Starting tile for Ball.
+	 */
+	public Point getStart() {
+		return new Point(startX, startY);
+	}
+
+	/*
+	 * @param	tile	Position of tile in the level, or cell returned by getPossibleLines.
+	 *
+	 * @return	Index of the first segment of the tile.
+	 */
+	public int getSegmentStart(int tile) {
+		return tileOffsets[tile];
+	}
+
+	/*
+	 * @param	tile	Position of tile in the level, or cell returned by getPossibleLines.
+	 *
+	 * @return	Index after the last segment of the tile.
+	 */
+	public int getSegmentEnd(int tile) {
+		return tileOffsets[tile+1];
+	}
+
+	/*
+	 * @return	Index of the first freeform segment, the total number of segments if there are none.
+	 */
+	public int getFreeformStart() {
+		return freeformStart;
+	}
+
+	/*
+	 * @return	Number of cells a query can return: the tiles, then the leaves holding freeform segments.
+	 */
+	public int getCellCount() {
+		return tileOffsets.length - 1;
+	}
+
+	/*
+	 * Samples the distance field of the level unless it has been already.
+	 * Takes a few milliseconds, so is done once after loading rather than on first use.
+	 *
+	 * @return	The distance field.
+	 */
+	public DistanceField buildDistanceField() {
+		synchronized (fieldOwner) {
+			if (fieldOwner.field == null) {
+				fieldOwner.field = new DistanceField(this);
+			}
+			return fieldOwner.field;
+		}
+	}
+
+	/*
+	 * Samples the distance field of a level that only changed in part since another level,
+	 * starting from the other level's field unless this one has a field already.
+	 *
+	 * @param	previous	Level before the change, sampled in full if it has no field.
+	 * @param	changed		Part of the level that changed, in pixels.
+	 *
+	 * @return	The distance field.
+	 */
+	public DistanceField buildDistanceField(LevelGeometry previous, Rectangle changed) {
+		DistanceField before = previous.getDistanceField();
+		if (before == null) {
+			return buildDistanceField();
+		}
+		synchronized (fieldOwner) {
+			if (fieldOwner.field == null) {
+				fieldOwner.field = new DistanceField(before, this, changed);
+			}
+			return fieldOwner.field;
+		}
+	}
+
+	/*
+	 * @return	The distance field, null if not built yet.
+	 */
+	public DistanceField getDistanceField() {
+		return fieldOwner.field;
+	}
+
+	/*
+	 * Distance from a point to the nearest wall, for early outs and proximity queries.
+	 *
+	 * @return	Lower bound of the distance from (x,y) to the nearest segment, within a cell of the
+	 *			field and capped at its maximum distance; 0 outside the level or before the field is built.
+	 */
+	public double getWallDistance(double x, double y) {
+		DistanceField current = fieldOwner.field;
+		return (current == null) ? 0 : current.getDistance(x, y);
+	}
+
+	/*
+	 * @return	Total number of segments in the level.
+	 */
+	public int getSegmentCount() {
+		return segX1.length;
+	}
+
+	public double getSegmentX1(int seg) {
+		return segX1[seg];
+	}
+
+	public double getSegmentY1(int seg) {
+		return segY1[seg];
+	}
+
+	public double getSegmentX2(int seg) {
+		return segX2[seg];
+	}
+
+	public double getSegmentY2(int seg) {
+		return segY2[seg];
+	}
+
+	public double getSegmentDX(int seg) {
+		return segDX[seg];
+	}
+
+	public double getSegmentDY(int seg) {
+		return segDY[seg];
+	}
+
+	/*
+	 * @return	x offset from the segment to the line at ball radius on either side.
+	 */
+	public double getSegmentOffsetX(int seg) {
+		return segOX[seg];
+	}
+
+	/*
+	 * @return	CAP_1 and CAP_2 flags of the end point caps of a segment that need testing.
+	 */
+	public int getSegmentCaps(int seg) {
+		return (segCaps == null) ? CAP_1|CAP_2 : segCaps[seg];
+	}
+
+	/*
+	 * @return	Whether only some end point caps are tested.
+	 */
+	public boolean hasSegmentCaps() {
+		return segCaps != null;
+	}
+
+	/*
+	 * @return	y offset from the segment to the line at ball radius on either side.
+	 */
+	public double getSegmentOffsetY(int seg) {
+		return segOY[seg];
+	}
+
+	/*
+	 * Finds the tiles with walls a ball may intersect with during delta time step.
+	 *
+	 * Freeform segments come first: every leaf of the SegmentBVH overlapping the box swept by the
+	 * ball is added with an entry time of 0. Then walks the grid cells crossed by the ball's center (DDA) in the order they are entered,
+	 * adding every tile within reach of the ball's radius together with the entry time.
+	 * Any wall hit at time t lies in a tile added with an entry time <= t, so a caller can
+	 * stop testing once the next entry time is past its earliest confirmed hit.
+	 *
+	 * @param	ball	Ball to check.
+	 * @param	delta	what fraction of a fixed time step to calculate.
+	 * @param	query	Query to fill with the tiles (cells) found, in order of entry.
+	 *
+	 * ASSUMPTIONS: ball smaller than tile size.
+	 */
+	public void getPossibleLines(Ball ball, double delta, TileQuery query) {
+		query.reset(tileOffsets.length - 1);
+
+		Ellipse2D c = ball.getCircle();
+		Point2D vel = ball.getVelocity();
+		double startX = c.getCenterX();
+		double startY = c.getCenterY();
+		double velX = vel.getX();
+		double velY = vel.getY();
+
+		if (bvh.getLeafCount() > 0) {
+			double r = ball.getRadius();
+			double endX = startX + velX*delta;
+			double endY = startY + velY*delta;
+			bvh.search(Math.min(startX, endX) - r, Math.min(startY, endY) - r,
+					Math.max(startX, endX) + r, Math.max(startY, endY) + r, level.length, query);
+		}
+
+		int tileX = (int) Math.floor(startX/tileSize);
+		int tileY = (int) Math.floor(startY/tileSize);
+		int stepX = (int) Math.signum(velX);
+		int stepY = (int) Math.signum(velY);
+
+		//Time to cross one tile and time of the next tile boundary on each axis.
+		double tDeltaX = (stepX != 0) ? tileSize/Math.abs(velX) : Double.POSITIVE_INFINITY;
+		double tDeltaY = (stepY != 0) ? tileSize/Math.abs(velY) : Double.POSITIVE_INFINITY;
+		double tMaxX = (stepX > 0) ? ((tileX+1)*tileSize-startX)/velX
+				: (stepX < 0) ? (tileX*tileSize-startX)/velX : Double.POSITIVE_INFINITY;
+		double tMaxY = (stepY > 0) ? ((tileY+1)*tileSize-startY)/velY
+				: (stepY < 0) ? (tileY*tileSize-startY)/velY : Double.POSITIVE_INFINITY;
+
+		double entry = 0;
+		while (true) {
+			addNeighbourhood(tileX, tileY, entry, query);
+			if (tMaxX < tMaxY) {
+				if (tMaxX > delta) {
+					break;
+				}
+				entry = tMaxX;
+				tileX += stepX;
+				tMaxX += tDeltaX;
+			} else {
+				if (tMaxY > delta) {
+					break;
+				}
+				entry = tMaxY;
+				tileY += stepY;
+				tMaxY += tDeltaY;
+			}
+		}
+	}
+
+	/*
+	 * Helper method for getPossibleLines method.
+	 * Adds the tiles with walls around (and including) the given tile to the query.
+	 *
+	 * @param	tileX, tileY	World column and row of the tile.
+	 */
+	private void addNeighbourhood(int tileX, int tileY, double entry, TileQuery query) {
+		int x, y, tilePos;
+		tileX -= originCol;
+		tileY -= originRow;
+		for (int j=-1; j<=1; j++) {
+			y = tileY + j;
+			if (y < 0 || y >= rows) {
+				continue;
+			}
+			for (int i=-1; i<=1; i++) {
+				x = tileX + i;
+				if (x >= 0 && x < cols) {
+					tilePos = x + y * cols;
+					if (tileOffsets[tilePos] != tileOffsets[tilePos+1]) {
+						query.add(tilePos, entry);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,122 @@
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * LevelWatcher reloads the level of a Map whenever its CSV file or the mapping file is saved,
+ * for editing a level while playing it (FlickGolf -watch).
+ *
+ * The directories of both files are watched by a WatchService on a daemon thread. Editors often
+ * save a file in several writes, so changes are only read once none came in for SETTLE_MILLIS.
+ * The mapping file is reloaded into the TileRegistry first, then Map rebuilds the tiles that
+ * changed and the game is told to swap the new level in on its next tick. A file that fails to
+ * parse is reported and the level played so far kept, ready for the next save.
+ */
+public class LevelWatcher implements Runnable {
+
+	//Quiet time after the last change before the files are read.
+	public static long SETTLE_MILLIS = 50;
+
+	private Map map;
+	private Path levelPath, mappingPath;
+	private Runnable onReload;
+	private WatchService watcher;
+	private Thread thread;
+
+	/*
+	 * Constructor for LevelWatcher object.
+	 *
+	 * @param	map			Map playing the level, loaded from levelFile.
+	 * @param	levelFile	CSV file of the level on disk.
+	 * @param	mappingFile	Mapping file of the tiles on disk.
+	 * @param	onReload	Called on the watcher thread after a new level is ready to be swapped in.
+	 */
+	public LevelWatcher(Map map, File levelFile, File mappingFile, Runnable onReload) throws IOException {
+		this.map = map;
+		this.onReload = onReload;
+		levelPath = levelFile.getAbsoluteFile().toPath().normalize();
+		mappingPath = mappingFile.getAbsoluteFile().toPath().normalize();
+		watcher = FileSystems.getDefault().newWatchService();
+		//Watching a directory twice gives the same key, so a shared directory is fine.
+		levelPath.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		mappingPath.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+	}
+
+	public void start() {
+		thread = new Thread(this, "level-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/*
+	 * Stops watching. Safe to call from any thread.
+	 */
+	public void close() throws IOException {
+		watcher.close();
+	}
+
+	public void run() {
+		try {
+			while (true) {
+				//Wait for a change to either file, then for the writes to settle.
+				boolean level = false;
+				boolean mapping = false;
+				WatchKey key = watcher.take();
+				while (key != null) {
+					Path dir = (Path) key.watchable();
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							level = true;
+							mapping = true;
+							continue;
+						}
+						Path changed = dir.resolve((Path) event.context());
+						level |= changed.equals(levelPath);
+						mapping |= changed.equals(mappingPath);
+					}
+					key.reset();
+					key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+				}
+				if (level || mapping) {
+					reload(mapping);
+				}
+			}
+		} catch (ClosedWatchServiceException e) {
+			//Closed, stop watching.
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * Helper method for run method.
+	 * Reads the changed files and hands the new level to the game.
+	 *
+	 * @param	mapping		Whether the mapping file changed too.
+	 */
+	private void reload(boolean mapping) {
+		long start = System.nanoTime();
+		try {
+			if (mapping) {
+				TileRegistry.reload(mappingPath.toFile());
+			}
+			Rectangle changed = map.reloadLevel(levelPath.toFile());
+			if (changed != null) {
+				System.out.printf("Reloaded %s in %.2f ms, %dx%d pixels changed%n", levelPath.getFileName(),
+						(System.nanoTime() - start)/1E6, changed.width, changed.height);
+				onReload.run();
+			}
+		} catch (Exception e) {
+			System.out.println("Failed to reload level.");
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,84 @@
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * LoopbackClient drives a SessionHost in the same process, standing in for remote players.
+ *
+ * Sends random flicks (the same range as a mouse drag in FlickGolf) to random sessions
+ * at a steady rate from its own thread, so the host can be measured without any network.
+ */
+public class LoopbackClient implements Runnable {
+
+	//Largest mouse drag on either axis, in pixels.
+	private static int MAX_DRAG = 250;
+
+	private SessionHost host;
+	private List<Integer> sessionIds;
+	private double flicksPerSecond;
+	private Random random;
+	private AtomicLong sent;
+
+	private Thread thread;
+	private volatile boolean running;
+
+	/*
+	 * Constructor for LoopbackClient object.
+	 *
+	 * @param	host			Host to send inputs to.
+	 * @param	sessionIds		Sessions to play.
+	 * @param	flicksPerSecond	Total rate of flicks over all sessions.
+	 * @param	seed			Seed of the random flicks, for repeatable runs.
+	 */
+	public LoopbackClient(SessionHost host, List<Integer> sessionIds, double flicksPerSecond, long seed) {
+		this.host = host;
+		this.sessionIds = sessionIds;
+		this.flicksPerSecond = flicksPerSecond;
+		random = new Random(seed);
+		sent = new AtomicLong();
+	}
+
+	public void start() {
+		running = true;
+		thread = new Thread(this, "loopback-client");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void stop() throws InterruptedException {
+		running = false;
+		thread.join();
+	}
+
+	public void run() {
+		if (flicksPerSecond <= 0 || sessionIds.isEmpty()) {
+			return;
+		}
+		long intervalNanos = (long) (1E9 / flicksPerSecond);
+		long next = System.nanoTime();
+		while (running) {
+			//Send every flick that is due, then sleep until the next one.
+			long now = System.nanoTime();
+			while (next <= now) {
+				int id = sessionIds.get(random.nextInt(sessionIds.size()));
+				double dragX = random.nextInt(2*MAX_DRAG+1) - MAX_DRAG;
+				double dragY = random.nextInt(2*MAX_DRAG+1) - MAX_DRAG;
+				host.submit(id, new GameInput(GameInput.FLICK, dragX/FlickGolf.FLICK_SCALE, dragY/FlickGolf.FLICK_SCALE));
+				sent.incrementAndGet();
+				next += intervalNanos;
+			}
+			try {
+				Thread.sleep(Math.max(1, (next - System.nanoTime()) / 1000000));
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/*
+	 * @return	Number of flicks sent so far.
+	 */
+	public long getSent() {
+		return sent.get();
+	}
+}
@@ -6,112 +6,482 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.awt.geom.Ellipse2D;
+import java.net.URL;
+import java.util.ArrayList;
 import java.awt.geom.Line2D;
-import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.HashMap;
 
-import javax.imageio.ImageIO;
 /*
  * Map provides storage and drawing for the current map.
  * 
- * Handles the collision detection for the game. 
+ * Loads levels into an immutable LevelGeometry used for the collision detection of the game. 
+ * CSV levels can be reloaded while playing, rebuilding only the tiles that changed; the new
+ * level is swapped in between physics ticks.
  */
 public class Map {
 	public static int WIDTH = 960;
 	public static int HEIGHT = 640;
 	public static int TILESIZE = 32;
+	public static int BALL_RADIUS = TILESIZE/4;
+	//Colour of freeform walls, close to the walls of the tileset.
+	public static Color WALL_COLOR = new Color(208, 134, 88);
+	//Colour of moving obstacles.
+	public static Color OBSTACLE_COLOR = new Color(150, 82, 46);
 	
-	private static int TILESET_WIDTH = 132;
-	private static String TILESET_PATH = "Assets/tileset.png";
-	private static String MAPPING_PATH = "Assets/mapping.csv";
+	//Collision data of the current level, replaced as a whole when a level loads.
+	private volatile LevelGeometry geometry;
+	private TileAtlas tiles;
+	//Streams the current world around the ball, null if the level fits in memory.
+	private WorldStreamer streamer;
+	private LevelGeometry streamed;
 	
-	private int[] level;
-	private ArrayList<Line2D>[] lines;
-	private BufferedImage tileset;
-	
-	//Starting position for ball.
-	private Point start;
+	/*
+	 * A level reloaded after its files changed, and the part of it that differs from the level
+	 * it replaces, in pixels.
+	 */
+	private static class Reload {
+		LevelGeometry from, to;
+		Rectangle area;
+		//Obstacle lines of the reloaded level, null if they did not change.
+		ArrayList<String> obstacles;
+	}
+	//Registry, freeform segments and obstacle lines the CSV level was last built from, for reloading it.
+	private TileRegistry builtWith;
+	private double[] builtFreeform;
+	private ArrayList<String> builtObstacles;
+	//Moving obstacles of the current level, null if it has none.
+	private ObstacleSet obstacles;
+	//Reload waiting for the next tick, and the reload applied last.
+	private volatile Reload pending;
+	private Reload applied;
 	
 	/*
 	 * Constructor for Map object.
-	 * Loads in tileset image and initiates empty arrays in preparation for loading a level.
+	 * Uses the shared tile images of the TileRegistry and initiates an empty level in preparation for loading a level.
 	 */
 	public Map() {
 		int aWidth = WIDTH/TILESIZE;
 		int aHeight = HEIGHT/TILESIZE;
-		int arraySize = aWidth*aHeight;
-		level = new int[arraySize];
-		lines = new ArrayList[arraySize];
 
 		//Force mid-way left hand side starting position.
-		start = new Point(aWidth/2,aHeight/2);
+		geometry = LevelGeometry.empty(aWidth, aHeight, TILESIZE, new Point(aWidth/2,aHeight/2), BALL_RADIUS);
 
-		try {
-			tileset = ImageIO.read(this.getClass().getResourceAsStream(TILESET_PATH));
-		} catch (IOException e1) {
-			// TODO Auto-generated catch block
-			e1.printStackTrace();
-		}		
+		//Tile images are decoded once and shared by every map.
+		tiles = TileRegistry.get().getAtlas();
 	}
 	
 	/*
 	 * Loads a level into the Map from Asset folder based on level name.
 	 * 
+	 * @param	levelName	Name of level to load (CSV file, or compiled .lvl file from the classpath or disk)
+	 * 
+	 * @return	Whether the level loaded; if not, the failure has been printed.
+	 */
+	public boolean loadLevel(String levelName) {
+		long loadStart = System.nanoTime();
+		closeWorld();
+		builtWith = null;
+		builtFreeform = null;
+		builtObstacles = null;
+		obstacles = null;
+		pending = null;
+		applied = null;
+		boolean loaded;
+		if (levelName.endsWith(WorldFile.EXTENSION)) {
+			loaded = loadWorld(levelName);
+		} else if (levelName.endsWith(LevelFile.EXTENSION)) {
+			loaded = loadCompiledLevel(levelName);
+		} else {
+			loaded = loadCSVLevel(levelName);
+		}
+		if (streamer == null) {
+			geometry.buildDistanceField();
+		}
+		if (PhysicsTelemetry.isActive()) {
+			LevelGeometry level = geometry;
+			PhysicsTelemetry.recordLevelLoad(levelName, System.nanoTime() - loadStart, level.getTileCount(), level.getSegmentCount());
+		}
+		return loaded;
+	}
+	
+	/*
+	 * Helper method for loadLevel method.
+	 * Memory-maps a level compiled by LevelCompiler, no parsing needed.
+	 * 
+	 * @param	levelName	Name of level to load (.lvl file)
+	 */
+	private boolean loadCompiledLevel(String levelName) {
+		try {
+			URL resource = this.getClass().getClassLoader().getResource(levelName);
+			if (resource != null) {
+				geometry = LevelFile.read(resource);
+			} else {
+				geometry = LevelFile.read(new File(levelName));
+			}
+			return true;
+		} catch (IOException e) {
+			System.out.println("Failed to load level.");
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/*
+	 * Helper method for loadLevel method.
+	 * Opens a world built by WorldBuilder and loads the window around its start.
+	 * 
+	 * @param	levelName	Name of world to load (.fgw file on disk)
+	 */
+	private boolean loadWorld(String levelName) {
+		try {
+			streamer = new WorldStreamer(new WorldFile(new File(levelName)), BALL_RADIUS);
+			streamed = streamer.getWindow();
+			geometry = streamed;
+			return true;
+		} catch (Exception e) {
+			System.out.println("Failed to load world.");
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	private void closeWorld() {
+		if (streamer != null) {
+			try {
+				streamer.close();
+			} catch (Exception e) {
+				System.out.println("Failed to close world.");
+				e.printStackTrace();
+			}
+			streamer = null;
+			streamed = null;
+		}
+	}
+	
+	/*
+	 * Keeps the walls around the ball loaded when streaming a world, does nothing otherwise.
+	 * Called before every physics step.
+	 * 
+	 * @param	ball	Ball the loaded walls should surround.
+	 * @throws	IllegalStateException	If part of the world failed to load.
+	 */
+	public void follow(Ball ball) {
+		if (streamer != null) {
+			//Only replace the geometry when a new window comes in, keeping any copy made for another radius meanwhile.
+			LevelGeometry window = streamer.follow(ball);
+			if (window != streamed) {
+				streamed = window;
+				geometry = window;
+			}
+		}
+	}
+	
+	/*
+	 * @return	Whether the current level is a world streamed around the ball.
+	 */
+	public boolean isStreaming() {
+		return streamer != null;
+	}
+	
+	/*
+	 * @return	Width of the whole level in pixels.
+	 */
+	public int getWorldWidth() {
+		return (streamer != null) ? streamer.getWorld().getCols()*TILESIZE : geometry.getCols()*TILESIZE;
+	}
+	
+	/*
+	 * @return	Height of the whole level in pixels.
+	 */
+	public int getWorldHeight() {
+		return (streamer != null) ? streamer.getWorld().getRows()*TILESIZE : geometry.getRows()*TILESIZE;
+	}
+	
+	/*
+	 * Helper method for loadLevel method.
+	 * Parses a CSV level and builds its geometry from the shared tile definitions.
+	 * 
+	 * The first line holds the tile ids. Any further lines are freeform shapes in pixels:
+	 * 	line,x1,y1,x2,y2[,x3,y3...]				segments joining the points in turn
+	 * 	arc,cx,cy,radius,from,to,segments		arc from and to the angles in degrees (0 to 360 for a circle)
+	 * Lines may also describe moving obstacles, see Obstacle.parse.
+	 * 
 	 * @param	levelName	Name of level to load (CSV file)
 	 */
-	public void loadLevel(String levelName) {				
-		HashMap<Integer,double[]> mapping = new HashMap<Integer,double[]>();
+	private boolean loadCSVLevel(String levelName) {
 		BufferedReader CSVFile;
 		
-		//Load the mapping file used to associate set(s) of lines for each tile.
+		//Load the level into a singular array for drawing
+		//Create a set of lines for each tile in the level based on the mapping. 
 		try {
-			CSVFile = new BufferedReader(new InputStreamReader(this.getClass().getClassLoader().getResourceAsStream(MAPPING_PATH)));
+			CSVFile = new BufferedReader(new InputStreamReader(this.getClass().getClassLoader().getResourceAsStream(levelName)));
+			ArrayList<double[]> freeform = new ArrayList<double[]>();
+			ArrayList<String> obstacleLines = new ArrayList<String>();
+			int[] level = readCSVLevel(CSVFile, freeform, obstacleLines);
+			double[] segments = toSegments(freeform);
+			ObstacleSet moving = buildObstacles(obstacleLines, 0);
+			TileRegistry registry = TileRegistry.get();
+			geometry = registry.build(0, 0, WIDTH / TILESIZE, HEIGHT / TILESIZE, TILESIZE, level, segments, geometry.getStart(), BALL_RADIUS);
+			builtWith = registry;
+			builtFreeform = segments;
+			builtObstacles = obstacleLines;
+			obstacles = moving;
+			return true;
+		} catch (Exception e) {
+			System.out.println("Failed to load level.");
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/*
+	 * Helper method for loadCSVLevel and reloadLevel methods.
+	 * Reads the tile ids, freeform shapes and obstacles of a CSV level, closing the file.
+	 * 
+	 * @param	CSVFile		Level to read.
+	 * @param	freeform	x1,y1,x2,y2 of the freeform segments found.
+	 * @param	obstacles	Lines of the moving obstacles found, parsed by buildObstacles.
+	 * 
+	 * @return	Tile id of every tile, row by row.
+	 */
+	private int[] readCSVLevel(BufferedReader CSVFile, ArrayList<double[]> freeform, ArrayList<String> obstacles) throws IOException {
+		try {
+			String[] mapData = CSVFile.readLine().split(",");
+			int lvlCols = WIDTH / TILESIZE;
+			int lvlRows = HEIGHT / TILESIZE;
+			int[] level = new int[lvlCols*lvlRows];
+			for (int i=0; i<mapData.length; i++) {
+				level[i] = Integer.parseInt(mapData[i]);
+			}
 			String dataRow = CSVFile.readLine();
 			while (dataRow != null) {
 				if (!dataRow.isEmpty()) {
 					String[] data = dataRow.split(",");
-					int pos = Integer.parseInt(data[0]);
-					double[] item = new double[data.length-1];
-					for (int i=1; i<data.length; i++) {
-						item[i-1] = Integer.parseInt(data[i]);
+					if (Obstacle.isObstacle(data[0])) {
+						obstacles.add(dataRow);
+					} else {
+						parseShape(data, freeform);
 					}
-					mapping.put(pos,item);
 				}
 				dataRow = CSVFile.readLine();
 			}
-		} catch (Exception e) {
-			System.out.println("Failed to load mapping");
-			e.printStackTrace();
+			return level;
+		} finally {
+			CSVFile.close();
+		}
+	}
+	
+	/*
+	 * Helper method for loadCSVLevel and reloadLevel methods.
+	 * 
+	 * @param	lines	Lines of the moving obstacles of a level.
+	 * @param	time	Tick the obstacles start from.
+	 * 
+	 * @return	The obstacles, null if there are none.
+	 */
+	private static ObstacleSet buildObstacles(ArrayList<String> lines, long time) {
+		if (lines.isEmpty()) {
+			return null;
 		}
+		Obstacle[] moving = new Obstacle[lines.size()];
+		for (int i=0; i<moving.length; i++) {
+			moving[i] = Obstacle.parse(lines.get(i).split(","));
+		}
+		return new ObstacleSet(moving, time);
+	}
+	
+	private static double[] toSegments(ArrayList<double[]> freeform) {
+		double[] segments = new double[freeform.size()*4];
+		for (int i=0; i<freeform.size(); i++) {
+			System.arraycopy(freeform.get(i), 0, segments, i*4, 4);
+		}
+		return segments;
+	}
+	
+	/*
+	 * Reads a CSV level again after it or the mapping file was edited, for playing on with the
+	 * changes (see LevelWatcher). Only the tiles whose id or template changed are stamped again
+	 * and only the distance field around them is sampled again; freeform segments are taken as
+	 * they are, and so are the moving obstacles, which go on from the current tick. The new
+	 * level is built on the calling thread and swapped in by the next
+	 * applyReload, so the ball in play is never stepped through half a level. Not to be called
+	 * from more than one thread at a time.
+	 * 
+	 * @param	levelFile	The CSV file of the level being played, on disk.
+	 * 
+	 * @return	Part of the level that changed in pixels; null if nothing did, the level is kept then.
+	 */
+	public Rectangle reloadLevel(File levelFile) throws IOException {
+		if (builtWith == null || streamer != null) {
+			throw new IllegalStateException("Only CSV levels can be reloaded");
+		}
+		ArrayList<double[]> shapes = new ArrayList<double[]>();
+		ArrayList<String> obstacleLines = new ArrayList<String>();
+		int[] level = readCSVLevel(new BufferedReader(new FileReader(levelFile)), shapes, obstacleLines);
+		double[] freeform = toSegments(shapes);
+		//Parsed now so a bad line leaves the level as it is.
+		buildObstacles(obstacleLines, 0);
+		boolean obstaclesChanged = !obstacleLines.equals(builtObstacles);
+		Reload last = pending;
+		LevelGeometry old = (last != null) ? last.to : geometry;
+		TileRegistry registry = TileRegistry.get();
 		
-		//Load the level into a singular array for drawing
-		//Create a set of lines for each tile in the level based on the mapping. 
-		try {
-			CSVFile = new BufferedReader(new InputStreamReader(this.getClass().getClassLoader().getResourceAsStream(levelName)));
-			String[] mapData = CSVFile.readLine().split(",");
-			int x, y, tile;
-			int lvlCols = WIDTH / TILESIZE;
-			double[] mappingItem;
-			ArrayList<Line2D> newLines;
-			for (int i=0; i<mapData.length; i++) {
-				tile = Integer.parseInt(mapData[i]);
-				mappingItem = mapping.get(tile);
-				x = (i % lvlCols)*TILESIZE;
-				y = (int) (Math.floor(i / lvlCols))*TILESIZE;
-				newLines = new ArrayList<Line2D>();
-				for (int j=0; j<mappingItem.length; j+=4) {
-					newLines.add(new Line2D.Double(x+mappingItem[j],y+mappingItem[j+1],x+mappingItem[j+2],y+mappingItem[j+3]));
+		//Tiles to stamp again, and the part of the level they and any changed freeform segments cover.
+		int maxId = 0;
+		for (int id : level) {
+			maxId = Math.max(maxId, id);
+		}
+		boolean[] templateChanged = new boolean[maxId+1];
+		for (int id=0; id<=maxId; id++) {
+			templateChanged[id] = !registry.sameTemplate(builtWith, id);
+		}
+		boolean[] changed = new boolean[level.length];
+		Rectangle area = null;
+		for (int i=0; i<level.length; i++) {
+			changed[i] = level[i] < 0 || level[i] != old.getTile(i) || templateChanged[level[i]];
+			if (changed[i]) {
+				Rectangle tile = new Rectangle((old.getOriginCol() + i % old.getCols())*TILESIZE,
+						(old.getOriginRow() + i / old.getCols())*TILESIZE, TILESIZE, TILESIZE);
+				area = (area == null) ? tile : area.union(tile);
+			}
+		}
+		if (!java.util.Arrays.equals(freeform, builtFreeform)) {
+			Rectangle walls = addBounds(builtFreeform, addBounds(freeform, null));
+			//Walls are drawn a few pixels wide.
+			walls.grow(2, 2);
+			area = (area == null) ? walls : area.union(walls);
+		}
+		if (area == null && !obstaclesChanged) {
+			builtWith = registry;
+			return null;
+		}
+		LevelGeometry next = old;
+		if (area != null) {
+			next = registry.rebuild(old, changed, level, freeform);
+			next.buildDistanceField(old, area);
+			builtFreeform = freeform;
+		} else {
+			//Only the obstacles changed, they are not part of the level drawn.
+			area = new Rectangle();
+		}
+		//Only once rebuilt, so a tile the registry does not know is found again on the next reload.
+		builtWith = registry;
+		builtObstacles = obstacleLines;
+		
+		Reload reload = new Reload();
+		reload.to = next;
+		reload.area = area;
+		reload.obstacles = obstaclesChanged ? obstacleLines : null;
+		synchronized (this) {
+			if (pending == last && last != null) {
+				//Not applied yet, both changes are still to be drawn.
+				reload.from = last.from;
+				if (last.area.isEmpty() || reload.area.isEmpty()) {
+					reload.area = last.area.isEmpty() ? reload.area : last.area;
+				} else {
+					reload.area = last.area.union(reload.area);
+				}
+				if (reload.obstacles == null) {
+					reload.obstacles = last.obstacles;
 				}
-				lines[i] = newLines;
-				level[i] = tile;
+			} else {
+				reload.from = old;
+			}
+			pending = reload;
+		}
+		return area;
+	}
+	
+	/*
+	 * @param	segments	x1,y1,x2,y2 of segments.
+	 * @param	bounds		Rectangle to grow, null for none.
+	 * 
+	 * @return	Smallest rectangle holding bounds and every segment, null if there is neither.
+	 */
+	private static Rectangle addBounds(double[] segments, Rectangle bounds) {
+		for (int i=0; i<segments.length; i+=2) {
+			Rectangle point = new Rectangle((int) Math.floor(segments[i]), (int) Math.floor(segments[i+1]), 1, 1);
+			bounds = (bounds == null) ? point : bounds.union(point);
+		}
+		return bounds;
+	}
+	
+	/*
+	 * Swaps in the level reloaded last, if there is one waiting. Called between physics ticks.
+	 * 
+	 * @return	Part of the level that changed in pixels, null if nothing was reloaded.
+	 */
+	public Rectangle applyReload() {
+		if (pending == null) {
+			return null;
+		}
+		Reload reload;
+		synchronized (this) {
+			reload = pending;
+			pending = null;
+		}
+		geometry = reload.to;
+		if (reload.obstacles != null) {
+			//Obstacles go on from where the old ones were, so play does not jump back in time.
+			obstacles = buildObstacles(reload.obstacles, (obstacles != null) ? obstacles.getTime() : 0);
+		}
+		applied = reload;
+		return reload.area;
+	}
+	
+	/*
+	 * @return	Whether a reloaded level is waiting for applyReload.
+	 */
+	public boolean isReloadPending() {
+		return pending != null;
+	}
+	
+	/*
+	 * @param	drawn	Level drawn earlier.
+	 * 
+	 * @return	Part of the current level that differs from the level drawn, in pixels;
+	 *			null if that is not known, as when another level was loaded.
+	 */
+	public Rectangle getChangedArea(LevelGeometry drawn) {
+		Reload reload = applied;
+		if (reload == null || reload.from != drawn || reload.to != geometry) {
+			return null;
+		}
+		return reload.area;
+	}
+	
+	/*
+	 * Helper method for loadCSVLevel method.
+	 * Adds the segments of a freeform shape, skipping any of zero length.
+	 * 
+	 * @param	data		Fields of the shape's line.
+	 * @param	segments	x1,y1,x2,y2 of the segments found so far.
+	 */
+	private void parseShape(String[] data, ArrayList<double[]> segments) {
+		double[] values = new double[data.length-1];
+		for (int i=1; i<data.length; i++) {
+			values[i-1] = Double.parseDouble(data[i].trim());
+		}
+		double[] points;
+		if (data[0].equals("line") && values.length >= 4 && values.length % 2 == 0) {
+			points = values;
+		} else if (data[0].equals("arc") && values.length == 6 && values[5] >= 1) {
+			int count = (int) values[5];
+			double from = Math.toRadians(values[3]);
+			double step = (Math.toRadians(values[4]) - from) / count;
+			points = new double[(count+1)*2];
+			for (int i=0; i<=count; i++) {
+				points[i*2] = values[0] + values[2]*Math.cos(from + i*step);
+				points[i*2+1] = values[1] + values[2]*Math.sin(from + i*step);
+			}
+		} else {
+			throw new IllegalArgumentException("Unknown shape: " + String.join(",", data));
+		}
+		for (int i=2; i<points.length; i+=2) {
+			if (points[i-2] != points[i] || points[i-1] != points[i+1]) {
+				segments.add(new double[] {points[i-2], points[i-1], points[i], points[i+1]});
 			}
-		} catch (Exception e) {
-			System.out.println("Failed to load level.");
-			e.printStackTrace();
 		}
 	}
 	
@@ -119,65 +489,120 @@ public class Map {
 	 * Draw the map.
 	 */
 	public void draw(Graphics g) {
-		int drawX, drawY, tileX, tileY;
-		int tileCols = TILESET_WIDTH / (TILESIZE+1);
-		int lvlCols = WIDTH / TILESIZE;
-		for (int i=0; i<level.length; i++) {
-			drawX = (i % lvlCols)*TILESIZE;
-			drawY = (int) (Math.floor(i / lvlCols))*TILESIZE;
-			tileX = (level[i] % tileCols) * (TILESIZE+1) + 1;
-			tileY = (int) (Math.floor(level[i] / tileCols)) * (TILESIZE+1) + 1;
-			g.drawImage(tileset.getSubimage(tileX, tileY, TILESIZE, TILESIZE), drawX, drawY, null);
+		LevelGeometry level = geometry;
+		int lvlCols = level.getCols();
+		int x = level.getOriginCol()*TILESIZE;
+		int y = level.getOriginRow()*TILESIZE;
+		for (int i=0; i<level.getTileCount(); i++) {
+			g.drawImage(tiles.getTile(level.getTile(i)), x + (i % lvlCols)*TILESIZE, y + (i / lvlCols)*TILESIZE, null);
 		}
+		drawFreeform(g, level);
+	}
+	
+	/*
+	 * Draws the freeform segments of a level as walls.
+	 */
+	private void drawFreeform(Graphics g, LevelGeometry level) {
+		if (level.getFreeformStart() == level.getSegmentCount()) {
+			return;
+		}
+		Graphics2D g2d = (Graphics2D) g.create();
+		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g2d.setStroke(new BasicStroke(3, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+		g2d.setColor(WALL_COLOR);
+		for (int seg=level.getFreeformStart(); seg<level.getSegmentCount(); seg++) {
+			g2d.draw(new Line2D.Double(level.getSegmentX1(seg), level.getSegmentY1(seg),
+					level.getSegmentX2(seg), level.getSegmentY2(seg)));
+		}
+		g2d.dispose();
+	}
+	
+	/*
+	 * Moves the obstacles on to the next tick. Called once every tick, after the balls were stepped.
+	 */
+	public void advanceObstacles() {
+		if (obstacles != null) {
+			obstacles.advance();
+		}
+	}
+	
+	/*
+	 * @return	Moving obstacles of the current level, null if it has none.
+	 */
+	public ObstacleSet getObstacles() {
+		return obstacles;
+	}
+	
+	/*
+	 * Draws the moving obstacles between their last two ticks.
+	 * 
+	 * @param	alpha	How far between the last tick and the current one, from 0 to 1.
+	 */
+	public void drawObstacles(Graphics g, double alpha) {
+		ObstacleSet moving = obstacles;
+		if (moving == null) {
+			return;
+		}
+		Graphics2D g2d = (Graphics2D) g.create();
+		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g2d.setStroke(new BasicStroke(3, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+		g2d.setColor(OBSTACLE_COLOR);
+		moving.draw(g2d, moving.getTime() - 1 + alpha);
+		g2d.dispose();
+	}
+	
+	/*
+	 * Draw only the loaded tiles that overlap a part of the world.
+	 * 
+	 * @param	view	Part of the world being drawn, in world pixels.
+	 */
+	public void draw(Graphics g, Rectangle view) {
+		LevelGeometry level = geometry;
+		int firstCol = Math.max(Math.floorDiv(view.x, TILESIZE) - level.getOriginCol(), 0);
+		int firstRow = Math.max(Math.floorDiv(view.y, TILESIZE) - level.getOriginRow(), 0);
+		int lastCol = Math.min(Math.floorDiv(view.x + view.width - 1, TILESIZE) - level.getOriginCol(), level.getCols()-1);
+		int lastRow = Math.min(Math.floorDiv(view.y + view.height - 1, TILESIZE) - level.getOriginRow(), level.getRows()-1);
+		for (int row=firstRow; row<=lastRow; row++) {
+			for (int col=firstCol; col<=lastCol; col++) {
+				g.drawImage(tiles.getTile(level.getTile(row*level.getCols() + col)),
+						(level.getOriginCol() + col)*TILESIZE, (level.getOriginRow() + row)*TILESIZE, null);
+			}
+		}
+		drawFreeform(g, level);
+	}
+	
+	/*
+	 * @return	Tile images of the tileset, indexed by tile id.
+	 */
+	public TileAtlas getTiles() {
+		return tiles;
 	}
 	
 	/* 
 	 * @return		Starting tile for Ball.
 	 */
 	public Point getStart() {
-		return start;
+		return geometry.getStart();
 	}
 	
 	/*
-	 * Checks balls for intersections with map elements after delta time step.
-	 * 
-	 * @param	ball	Ball to check.
-	 * @param	delta	what fraction of a fixed time step to calculate.
-	 * 
-	 * @return	All lines that will intersect with ball.
+	 * @return	Collision data of the current level.
+	 */
+	public LevelGeometry getGeometry() {
+		return geometry;
+	}
+	
+	/*
+	 * @param	radius	Radius of the ball that will be tested against the walls.
 	 * 
-	 * ASSUMPTIONS: delta <= 1.0, ball smaller than tile size, ball cannot completely pass a tile in one delta time step.
+	 * @return	Collision data of the current level, expanded for radius.
 	 */
-	public ArrayList<Line2D> getPossibleLines(Ball ball, double delta) {
-		ArrayList<Line2D> checkLines = new ArrayList<Line2D>();
-		
-		/* BROAD SEARCH 
-		 * Checking all tiles within map around ball.
-		 */
-		
-		Ellipse2D c = ball.getCircle();
-		Point2D vel = ball.getVelocity();
-		Point2D newCenter = new Point2D.Double((c.getCenterX() + vel.getX() * delta),(c.getCenterY() + vel.getY() * delta));
-		int r = ball.getRadius();
-		
-		int centerTileX = (int)(newCenter.getX()/TILESIZE);
-		int centerTileY = (int)(newCenter.getY()/TILESIZE);
-		
-		int gridWidth = WIDTH/TILESIZE;
-		int gridHeight = HEIGHT/TILESIZE;
-		int tilePos, tileType, tileX, tileY;
-		for (int i=-15; i<=15; i++) {
-			for (int j=-15; j<=15; j++) {
-				tileX = centerTileX + i;
-				tileY = centerTileY + j;
-				
-				if(tileX >= 0 && tileY >= 0 && tileX < gridWidth && tileY < gridHeight) {
-					tilePos = tileX + tileY * gridWidth;
-					tileType = level[tilePos];
-					checkLines.addAll(lines[tilePos]);
-				}
-			}
+	public LevelGeometry getGeometry(double radius) {
+		LevelGeometry current = geometry;
+		if (current.getRadius() != radius) {
+			current = current.withRadius(radius);
+			geometry = current;
 		}
-		return checkLines;
+		return current;
 	}
 }
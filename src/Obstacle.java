@@ -0,0 +1,316 @@
+import java.awt.Graphics2D;
+import java.awt.geom.Line2D;
+
+/*
+ * Obstacle is a wall moving along a scripted path: the blades of a windmill, a sliding gate or
+ * a rotating bumper.
+ *
+ * Its segments are given around a pivot. At time t, in ticks, the pivot has moved a share of
+ * its slide, easing out and back once every slide period, and the segments have turned about
+ * it by a full turn every spin period. The pose only depends on the time, so every engine and
+ * the renderer agree on it without sharing any state, and replays see the same obstacles.
+ * Immutable, so it can be shared like a LevelGeometry.
+ *
+ * Collisions are found in the obstacle's own frame, where it stands still and the walls are
+ * tested exactly like static ones (see timeOfImpact).
+ */
+public class Obstacle {
+
+	private double pivotX, pivotY;
+	private double slideX, slideY, slidePeriod;
+	private double spinPeriod;
+	//Segments as x1,y1,x2,y2 around the pivot, and the unit normal of each.
+	private double[] segments;
+	private double[] normals;
+	//Box around the pivot holding the segments in any pose.
+	private double localMinX, localMinY, localMaxX, localMaxY;
+
+	/*
+	 * Constructor for Obstacle object.
+	 *
+	 * @param	pivotX, pivotY		Position of the pivot at time 0, in pixels.
+	 * @param	segments			x1,y1,x2,y2 of every segment, relative to the pivot.
+	 * @param	slideX, slideY		Farthest the pivot slides from its position at time 0.
+	 * @param	slidePeriod			Ticks to slide there and back, 0 to stay in place.
+	 * @param	spinPeriod			Ticks per turn, negative to turn the other way, 0 not to turn.
+	 */
+	public Obstacle(double pivotX, double pivotY, double[] segments, double slideX, double slideY,
+			double slidePeriod, double spinPeriod) {
+		this.pivotX = pivotX;
+		this.pivotY = pivotY;
+		this.segments = segments;
+		this.slideX = (slidePeriod != 0) ? slideX : 0;
+		this.slideY = (slidePeriod != 0) ? slideY : 0;
+		this.slidePeriod = slidePeriod;
+		this.spinPeriod = spinPeriod;
+
+		normals = new double[segments.length/2];
+		double dX, dY, len, reach = 0;
+		localMinX = localMinY = Double.POSITIVE_INFINITY;
+		localMaxX = localMaxY = Double.NEGATIVE_INFINITY;
+		for (int i=0; i<segments.length; i+=4) {
+			dX = segments[i+2]-segments[i];
+			dY = segments[i+3]-segments[i+1];
+			len = Math.sqrt((dX*dX)+(dY*dY));
+			if (len > 0) {
+				normals[i/2] = dY/len;
+				normals[i/2+1] = -dX/len;
+			}
+			for (int j=i; j<i+4; j+=2) {
+				localMinX = Math.min(localMinX, segments[j]);
+				localMinY = Math.min(localMinY, segments[j+1]);
+				localMaxX = Math.max(localMaxX, segments[j]);
+				localMaxY = Math.max(localMaxY, segments[j+1]);
+				reach = Math.max(reach, Math.sqrt((segments[j]*segments[j])+(segments[j+1]*segments[j+1])));
+			}
+		}
+		if (spinPeriod != 0) {
+			//Turning, any point within reach of the pivot may be covered.
+			localMinX = localMinY = -reach;
+			localMaxX = localMaxY = reach;
+		}
+	}
+
+	/*
+	 * Creates an obstacle from a line of a CSV level:
+	 * 	blades,cx,cy,length,count,period			windmill, count blades turning about (cx,cy)
+	 * 	gate,x1,y1,x2,y2,dx,dy,period				wall sliding by (dx,dy) and back
+	 * 	bumper,cx,cy,radius,sides,period			polygon turning about its center
+	 * Periods are in ticks, negative periods turn the other way. Assets/level3.csv has one of each,
+	 * with gates sliding into the walls of the room.
+	 *
+	 * @param	data	Fields of the line.
+	 *
+	 * @return	The obstacle, null if the line is not an obstacle.
+	 */
+	public static Obstacle parse(String[] data) {
+		String kind = data[0];
+		if (!isObstacle(kind)) {
+			return null;
+		}
+		double[] values = new double[data.length-1];
+		for (int i=1; i<data.length; i++) {
+			values[i-1] = Double.parseDouble(data[i].trim());
+		}
+		if (kind.equals("gate") && values.length == 7 && values[6] > 0) {
+			double cX = (values[0]+values[2])/2;
+			double cY = (values[1]+values[3])/2;
+			return new Obstacle(cX, cY, new double[] {values[0]-cX, values[1]-cY, values[2]-cX, values[3]-cY},
+					values[4], values[5], values[6], 0);
+		}
+		boolean blades = kind.equals("blades");
+		if (!kind.equals("gate") && values.length == 5 && values[4] != 0 && values[3] >= (blades ? 1 : 3)) {
+			int count = (int) values[3];
+			double[] segs = new double[count*4];
+			double angle, next;
+			for (int i=0; i<count; i++) {
+				angle = 2*Math.PI*i/count;
+				next = 2*Math.PI*(i+1)/count;
+				//Blades run out from the center, the sides of a bumper from corner to corner.
+				segs[i*4] = blades ? 0 : values[2]*Math.cos(angle);
+				segs[i*4+1] = blades ? 0 : values[2]*Math.sin(angle);
+				segs[i*4+2] = values[2]*Math.cos(blades ? angle : next);
+				segs[i*4+3] = values[2]*Math.sin(blades ? angle : next);
+			}
+			return new Obstacle(values[0], values[1], segs, 0, 0, 0, values[4]);
+		}
+		throw new IllegalArgumentException("Bad obstacle: " + String.join(",", data));
+	}
+
+	/*
+	 * @return	Whether a line of a CSV level of the given kind is an obstacle.
+	 */
+	public static boolean isObstacle(String kind) {
+		return kind.equals("blades") || kind.equals("gate") || kind.equals("bumper");
+	}
+
+	/*
+	 * @return	x of the pivot at a time given in ticks.
+	 */
+	public double getX(double time) {
+		return pivotX + slideX*getSlide(time);
+	}
+
+	/*
+	 * @return	y of the pivot at a time given in ticks.
+	 */
+	public double getY(double time) {
+		return pivotY + slideY*getSlide(time);
+	}
+
+	/*
+	 * @return	Share of the slide done at a time, easing from 0 to 1 and back.
+	 */
+	private double getSlide(double time) {
+		return (slidePeriod == 0) ? 0 : (1 - Math.cos(2*Math.PI*time/slidePeriod))/2;
+	}
+
+	/*
+	 * @return	Fastest the pivot ever moves, in pixels per tick.
+	 */
+	public double getMaxSpeed() {
+		return (slidePeriod == 0) ? 0 : Math.sqrt((slideX*slideX)+(slideY*slideY))*Math.PI/slidePeriod;
+	}
+
+	/*
+	 * @return	Angle the segments are turned by at a time, in radians.
+	 */
+	public double getAngle(double time) {
+		return (spinPeriod == 0) ? 0 : 2*Math.PI*time/spinPeriod;
+	}
+
+	/*
+	 * @return	Box around the pivot holding the segments in any pose.
+	 */
+	public double getLocalMinX() {
+		return localMinX;
+	}
+
+	public double getLocalMinY() {
+		return localMinY;
+	}
+
+	public double getLocalMaxX() {
+		return localMaxX;
+	}
+
+	public double getLocalMaxY() {
+		return localMaxY;
+	}
+
+	/*
+	 * Converts a point into the obstacle's frame at a time.
+	 *
+	 * @param	local	Receives x and y of the point relative to the unturned segments.
+	 */
+	public void toLocal(double x, double y, double time, double[] local) {
+		double angle = getAngle(time);
+		double cos = Math.cos(angle);
+		double sin = Math.sin(angle);
+		x -= getX(time);
+		y -= getY(time);
+		local[0] = (x*cos)+(y*sin);
+		local[1] = (y*cos)-(x*sin);
+	}
+
+	/*
+	 * Turns a direction from the obstacle's frame at a time into the level's.
+	 *
+	 * @param	world	Receives x and y of the direction in the level.
+	 */
+	public void toWorldDirection(double dX, double dY, double time, double[] world) {
+		double angle = getAngle(time);
+		double cos = Math.cos(angle);
+		double sin = Math.sin(angle);
+		world[0] = (dX*cos)-(dY*sin);
+		world[1] = (dX*sin)+(dY*cos);
+	}
+
+	/*
+	 * Finds when a ball moving in a straight line in the obstacle's frame first touches it,
+	 * against the lines at radius either side of each segment and the circles around their
+	 * end points. Only hits while the ball is moving towards the wall count, so a ball leaving
+	 * a wall is never held back. The ball's path is only followed in a straight line here, so it
+	 * may end up overlapping a wall by a fraction of a pixel; moving further in, it hits at once.
+	 *
+	 * @param	x, y			Ball's center in the obstacle's frame.
+	 * @param	velX, velY		Ball's velocity in the obstacle's frame.
+	 * @param	radius			Ball's radius.
+	 * @param	minT, maxT		Times of impact to consider.
+	 * @param	normal			Receives the unit normal of the wall hit in the obstacle's frame,
+	 *							pointing towards the ball.
+	 *
+	 * @return	Time of impact, infinite if there is none.
+	 */
+	public double timeOfImpact(double x, double y, double velX, double velY, double radius,
+			double minT, double maxT, double[] normal) {
+		double best = Double.POSITIVE_INFINITY;
+		double a = (velX*velX)+(velY*velY);
+		double x1, y1, dX, dY, nX, nY, side, d0, vN, t, u, fX, fY, b, c, det;
+		for (int i=0; i<segments.length; i+=4) {
+			x1 = segments[i];
+			y1 = segments[i+1];
+			dX = segments[i+2]-x1;
+			dY = segments[i+3]-y1;
+			nX = normals[i/2];
+			nY = normals[i/2+1];
+
+			//The line on the side the ball is coming from.
+			vN = (velX*nX)+(velY*nY);
+			if (vN != 0) {
+				side = (vN < 0) ? 1 : -1;
+				d0 = ((x-x1)*nX)+((y-y1)*nY);
+				t = ((side*radius)-d0)/vN;
+				if (t < minT && side*d0 > 0) {
+					t = minT;
+				}
+				if (t >= minT && t <= maxT && t < best) {
+					u = (((x+(t*velX)-x1)*dX)+((y+(t*velY)-y1)*dY))/((dX*dX)+(dY*dY));
+					if (u > 0 && u < 1) {
+						best = t;
+						normal[0] = side*nX;
+						normal[1] = side*nY;
+					}
+				}
+			}
+
+			//Circles around the end points, entering only.
+			for (int j=i; j<i+4 && a > 0; j+=2) {
+				fX = x-segments[j];
+				fY = y-segments[j+1];
+				b = (fX*velX)+(fY*velY);
+				c = (fX*fX)+(fY*fY)-(radius*radius);
+				det = (b*b)-(a*c);
+				if (det >= 0 && b < 0) {
+					t = Math.max(minT, (-b-Math.sqrt(det))/a);
+					if (t <= maxT && t < best) {
+						best = t;
+						fX += t*velX;
+						fY += t*velY;
+						c = Math.sqrt((fX*fX)+(fY*fY));
+						normal[0] = fX/c;
+						normal[1] = fY/c;
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	/*
+	 * @return	Distance from a point to the nearest segment at a time.
+	 */
+	public double getDistance(double x, double y, double time) {
+		double[] local = new double[2];
+		toLocal(x, y, time, local);
+		double nearest = Double.POSITIVE_INFINITY;
+		double x1, y1, dX, dY, u, fX, fY;
+		for (int i=0; i<segments.length; i+=4) {
+			x1 = segments[i];
+			y1 = segments[i+1];
+			dX = segments[i+2]-x1;
+			dY = segments[i+3]-y1;
+			u = ((dX*dX)+(dY*dY) > 0) ? (((local[0]-x1)*dX)+((local[1]-y1)*dY))/((dX*dX)+(dY*dY)) : 0;
+			u = Math.max(0, Math.min(1, u));
+			fX = local[0]-(x1+(u*dX));
+			fY = local[1]-(y1+(u*dY));
+			nearest = Math.min(nearest, (fX*fX)+(fY*fY));
+		}
+		return Math.sqrt(nearest);
+	}
+
+	/*
+	 * Draws the segments in their pose at a time.
+	 */
+	public void draw(Graphics2D g, double time) {
+		double angle = getAngle(time);
+		double cos = Math.cos(angle);
+		double sin = Math.sin(angle);
+		double x = getX(time);
+		double y = getY(time);
+		for (int i=0; i<segments.length; i+=4) {
+			g.draw(new Line2D.Double(x+(segments[i]*cos)-(segments[i+1]*sin), y+(segments[i]*sin)+(segments[i+1]*cos),
+					x+(segments[i+2]*cos)-(segments[i+3]*sin), y+(segments[i+2]*sin)+(segments[i+3]*cos)));
+		}
+	}
+}
@@ -0,0 +1,142 @@
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+
+/*
+ * ObstacleSet holds the moving obstacles of a level and the broad phase over them.
+ *
+ * Time runs in ticks: getTime is the start of the tick being stepped and advance moves on to
+ * the next one. The box each obstacle may cover during the tick is kept in a list sorted along
+ * x (sweep and prune, as in BallCollider). Obstacles move little per tick, so advance only
+ * moves the boxes and re-sorts the list by insertion sort in close to linear time; the static
+ * tiles and SegmentBVH of the level are never touched.
+ * Stepped and drawn from the thread running the game.
+ */
+public class ObstacleSet {
+
+	private Obstacle[] obstacles;
+	private long time;
+	//Box each obstacle may cover from getTime to a tick later, and the obstacles sorted by minX.
+	private double[] minX, minY, maxX, maxY;
+	private int[] order;
+
+	/*
+	 * Constructor for ObstacleSet object.
+	 *
+	 * @param	obstacles	Obstacles of the level.
+	 * @param	time		Tick to start from.
+	 */
+	public ObstacleSet(Obstacle[] obstacles, long time) {
+		this.obstacles = obstacles;
+		this.time = time;
+		int count = obstacles.length;
+		minX = new double[count];
+		minY = new double[count];
+		maxX = new double[count];
+		maxY = new double[count];
+		order = new int[count];
+		for (int i=0; i<count; i++) {
+			order[i] = i;
+		}
+		update();
+	}
+
+	/*
+	 * @return	A set of the same obstacles starting from another tick, stepped on its own, as for
+	 *			a simulation that keeps its own time; the obstacles themselves are shared.
+	 */
+	public ObstacleSet copy(long time) {
+		return new ObstacleSet(obstacles, time);
+	}
+
+	/*
+	 * Moves on to the next tick. Called once every tick, after every ball was stepped.
+	 */
+	public void advance() {
+		time++;
+		update();
+	}
+
+	/*
+	 * Helper method for constructor and advance method.
+	 * Moves the box of every obstacle to the current tick and sorts them again.
+	 */
+	private void update() {
+		Obstacle o;
+		double x, y, margin;
+		for (int i=0; i<obstacles.length; i++) {
+			o = obstacles[i];
+			//The pivot stays within its greatest speed of where it starts the tick, either way.
+			x = o.getX(time);
+			y = o.getY(time);
+			margin = o.getMaxSpeed();
+			minX[i] = x + o.getLocalMinX() - margin;
+			minY[i] = y + o.getLocalMinY() - margin;
+			maxX[i] = x + o.getLocalMaxX() + margin;
+			maxY[i] = y + o.getLocalMaxY() + margin;
+		}
+
+		//Nearly sorted from the last tick, so insertion sort is close to linear.
+		int obstacle, j;
+		for (int i=1; i<order.length; i++) {
+			obstacle = order[i];
+			for (j=i; j>0 && minX[order[j-1]] > minX[obstacle]; j--) {
+				order[j] = order[j-1];
+			}
+			order[j] = obstacle;
+		}
+	}
+
+	/*
+	 * Finds the obstacles that may overlap a box during the current tick.
+	 *
+	 * @param	x0, y0, x1, y1	Box to search, from its min to its max corner.
+	 * @param	found			Receives the index of every obstacle found, at least size() long.
+	 *
+	 * @return	Number of obstacles found.
+	 */
+	public int search(double x0, double y0, double x1, double y1, int[] found) {
+		int count = 0;
+		int o;
+		for (int i=0; i<order.length && minX[order[i]] <= x1; i++) {
+			o = order[i];
+			if (maxX[o] >= x0 && minY[o] <= y1 && maxY[o] >= y0) {
+				found[count++] = o;
+			}
+		}
+		return count;
+	}
+
+	/*
+	 * @return	Start of the tick being stepped, in ticks.
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	public int size() {
+		return obstacles.length;
+	}
+
+	public Obstacle get(int i) {
+		return obstacles[i];
+	}
+
+	/*
+	 * @return	Pixels an obstacle may cover a tick either side of getTime, with a pixel of
+	 *			margin for drawing.
+	 */
+	public Rectangle getBounds(int i) {
+		int x = (int) Math.floor(minX[i]) - 2;
+		int y = (int) Math.floor(minY[i]) - 2;
+		return new Rectangle(x, y, (int) Math.ceil(maxX[i]) + 3 - x, (int) Math.ceil(maxY[i]) + 3 - y);
+	}
+
+	/*
+	 * Draws every obstacle at a time, usually between the last two ticks.
+	 */
+	public void draw(Graphics2D g, double time) {
+		for (Obstacle o : obstacles) {
+			o.draw(g, time);
+		}
+	}
+}
@@ -0,0 +1,782 @@
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+ * PhysicsEngine steps a Ball through a level.
+ *
+ * Handles the collision detection and response for the game without any dependency on the UI,
+ * so the simulation can be run headless (tools, servers, tests) as well as from FlickGolf.
+ * Rolling friction slows the ball down by a constant amount every tick until it is slow enough
+ * to be put to rest; a ball at rest is not simulated at all until something moves it again.
+ * A ball further from every wall than it travels in a step skips collision detection entirely,
+ * going by the level's DistanceField.
+ * Moving obstacles are tested in the same sub-step loop, in each obstacle's own frame with the
+ * ball's velocity relative to it, so a ball bouncing off one picks up its speed; a ball at rest
+ * is still stepped while an obstacle may reach it. Static walls always win over obstacles, so a
+ * gate sliding into a wall passes through a ball caught against it rather than push it through.
+ */
+public class PhysicsEngine {
+
+	private Map map;
+	private LevelGeometry geometry;
+	private ObstacleSet obstacles;
+	private Ball ball;
+	private TileQuery query;
+	//Whether every wall was out of reach this sub-step, leaving query unfilled.
+	private boolean clear;
+	private ImpactBatch batch;
+
+	//Computes times of impact for the narrow phase, VectorImpactKernel when available.
+	private static ImpactKernel kernel = loadKernel();
+	//Fewest candidate segments worth handing to the kernel; smaller sets are checked one by one.
+	public static int BATCH_SEGMENTS = 32;
+	//Speed lost to rolling friction per tick, in pixels per tick.
+	public static double FRICTION = 0.015;
+	//Balls slower than this after friction are put to rest.
+	public static double SLEEP_SPEED = 0.05;
+	//Whether to skip collision detection for balls clear of every wall.
+	public static boolean USE_DISTANCE_FIELD = true;
+	//Most obstacle hits per tick; a ball wedged between obstacles is passed through for the rest
+	//of the tick instead of being hit again and again. Walls always win: an obstacle that would
+	//push the ball into one passes through it at once.
+	public static int MAX_OBSTACLE_HITS = 8;
+	//Share of the speed towards a moving obstacle kept in bouncing off it, less than 1 so a ball
+	//caught between walls and obstacles cannot keep gaining speed from them.
+	public static double OBSTACLE_BOUNCE = 0.75;
+
+	private double friction, sleepSpeed;
+
+	//Scratch state for the collision check currently in progress.
+	private double startX, startY, velX, velY, radius;
+	private double minT, smallestT;
+	private double[] hitNormals;
+	private int hitCount;
+	//Obstacle hit earlier than any wall, its normal in the level, the ball's speed towards it
+	//and the candidates found.
+	private Obstacle obstacleHit;
+	private double obstacleNX, obstacleNY, obstacleApproach;
+	private int[] obstacleCandidates;
+	private double[] local;
+	//Obstacles passing through the ball for the rest of the tick.
+	private ArrayList<Obstacle> passed;
+
+	//Number of collisions resolved since the last reset, and where the ball's center was at the last one.
+	private int bounces;
+	private double lastBounceX, lastBounceY;
+	//Straight path the ball ended the last step on: when it started, in ticks from the start of
+	//the tick, where, and its velocity along it before friction.
+	private double pathTime, pathX, pathY, pathVelX, pathVelY;
+
+	//Debug geometry collected for the dev overlay, only when debug is enabled.
+	private boolean debug;
+	private ArrayList<Line2D> collLines;
+	private ArrayList<Ellipse2D> collCircs;
+	private ArrayList<Point2D> pointsOfInterest;
+
+	/*
+	 * Constructor for PhysicsEngine object.
+	 * Follows the level currently loaded in the map.
+	 *
+	 * @param	map		Map the ball is moving on.
+	 * @param	ball	Ball to simulate.
+	 */
+	public PhysicsEngine(Map map, Ball ball) {
+		this(map.getGeometry(ball.getRadius()), ball);
+		this.map = map;
+	}
+
+	/*
+	 * Constructor for PhysicsEngine object.
+	 * Uses a fixed level, which may be shared with other engines.
+	 *
+	 * @param	geometry	Collision data of the level the ball is moving on.
+	 * @param	ball		Ball to simulate.
+	 */
+	public PhysicsEngine(LevelGeometry geometry, Ball ball) {
+		this.geometry = geometry;
+		this.ball = ball;
+		query = new TileQuery();
+		batch = new ImpactBatch();
+		hitNormals = new double[8];
+		obstacleCandidates = new int[0];
+		local = new double[2];
+		passed = new ArrayList<Obstacle>();
+		friction = FRICTION;
+		sleepSpeed = SLEEP_SPEED;
+		debug = false;
+		collLines = new ArrayList<Line2D>();
+		collCircs = new ArrayList<Ellipse2D>();
+		pointsOfInterest = new ArrayList<Point2D>();
+	}
+
+	/*
+	 * Check and update physics of the ball for a fraction of a fixed time step.
+	 * (collision detection/handling)
+	 *
+	 * Does nothing while the ball is at rest, unless a moving obstacle may hit it.
+	 *
+	 * @param	delta	what fraction of a fixed time step to calculate, always up to the end of the tick.
+	 */
+	public void step(double delta) {
+		step(delta, delta);
+	}
+
+	/*
+	 * Check and update physics of the ball for a fraction of a fixed time step, with rolling
+	 * friction for another fraction, as when the rest of a tick is stepped again after the ball
+	 * was moved back within it.
+	 *
+	 * @param	delta			what fraction of a fixed time step to calculate, always up to the end of the tick.
+	 * @param	frictionDelta	what fraction of a fixed time step of friction to apply at the end.
+	 */
+	public void step(double delta, double frictionDelta) {
+		if (map != null) {
+			obstacles = map.getObstacles();
+		}
+		pathTime = 1 - delta;
+		pathX = ball.getCircle().getCenterX();
+		pathY = ball.getCircle().getCenterY();
+		pathVelX = ball.getVelocity().getX();
+		pathVelY = ball.getVelocity().getY();
+		if (ball.isAtRest() && !nearObstacle()) {
+			return;
+		}
+		if (map != null) {
+			geometry = map.getGeometry(ball.getRadius());
+		} else {
+			geometry = geometry.withRadius(ball.getRadius());
+		}
+		//Telemetry, only reported when PhysicsTelemetry is active.
+		boolean measure = PhysicsTelemetry.isActive();
+		long tickStart = measure ? System.nanoTime() : 0;
+		int subSteps = 0, candidateTiles = 0, candidateLines = 0, tests = 0, collisions = 0, obstacleHits = 0;
+		passed.clear();
+		while (delta > 0) {
+			Point2D vel = ball.getVelocity();
+			subSteps++;
+			startX = ball.getCircle().getCenterX();
+			startY = ball.getCircle().getCenterY();
+			velX = vel.getX();
+			velY = vel.getY();
+			radius = ball.getRadius();
+			pathTime = 1 - delta;
+			pathX = startX;
+			pathY = startY;
+			pathVelX = velX;
+			pathVelY = velY;
+			smallestT = Double.POSITIVE_INFINITY;
+			hitCount = 0;
+			obstacleHit = null;
+			//Nothing to hit if every wall is further away than the ball can reach.
+			clear = USE_DISTANCE_FIELD && geometry.getWallDistance(startX, startY)
+					> Math.sqrt((velX*velX)+(velY*velY))*delta + radius;
+			if (!clear) {
+				geometry.getPossibleLines(ball, delta, query);
+				if (measure) {
+					candidateTiles += query.size();
+				}
+			}
+			if (!clear && query.size() > 0) {
+				if(debug) {
+					collLines.clear();
+					collCircs.clear();
+					pointsOfInterest.clear();
+				}
+				//Collision handling
+				double speed = Math.sqrt((velX*velX)+(velY*velY));
+				//Ignore collisions closer than 1E-5 units so a ball resting on a wall can leave it.
+				minT = 1E-5 / speed;
+
+				int candidates = 0;
+				for (int i=0; i<query.size(); i++) {
+					candidates += geometry.getSegmentEnd(query.getTile(i)) - geometry.getSegmentStart(query.getTile(i));
+				}
+				candidateLines += candidates;
+				if (debug || candidates < BATCH_SEGMENTS) {
+					int tile, end;
+					for (int i=0; i<query.size(); i++) {
+						//Tiles are in order of entry so no later tile can hold an earlier hit.
+						if (query.getEntryTime(i) > smallestT) {
+							break;
+						}
+						tile = query.getTile(i);
+						end = geometry.getSegmentEnd(tile);
+						tests += end - geometry.getSegmentStart(tile);
+						for (int seg=geometry.getSegmentStart(tile); seg<end; seg++) {
+							checkLines(seg);
+							checkCircles(seg);
+						}
+					}
+				} else {
+					tests += checkBatch();
+				}
+			}
+			if (obstacles != null && obstacleHits < MAX_OBSTACLE_HITS) {
+				//The sub-step runs to the end of the tick.
+				checkObstacles(obstacles.getTime() + 1 - delta, delta);
+			}
+
+			if (hitCount > 0 && smallestT <= delta) {
+				double newVelX = velX;
+				double newVelY = velY;
+
+				//Reflect over every wall hit at the same time (simultaneous collisions).
+				double nX, nY, dotProd;
+				for (int i=0; i<hitCount*2; i+=2) {
+					nX = hitNormals[i];
+					nY = hitNormals[i+1];
+					dotProd = ((newVelX*nX)+(newVelY*nY))/((nX*nX)+(nY*nY));
+					newVelX -= 2*dotProd*nX;
+					newVelY -= 2*dotProd*nY;
+				}
+
+				lastBounceX = startX+(smallestT*velX);
+				lastBounceY = startY+(smallestT*velY);
+				ball.setCenter(lastBounceX, lastBounceY);
+				ball.setVelocity(newVelX, newVelY);
+				bounces++;
+				collisions++;
+				if (measure) {
+					PhysicsTelemetry.recordCollision(startX+(smallestT*velX), startY+(smallestT*velY),
+							velX, velY, newVelX, newVelY, hitCount);
+				}
+				delta -= smallestT;
+			} else if (obstacleHit != null) {
+				if (bounceObstacle(obstacles.getTime() + 1 - delta + smallestT, measure)) {
+					collisions++;
+					obstacleHits++;
+					delta -= smallestT;
+				} else {
+					passed.add(obstacleHit);
+				}
+			} else {
+				ball.move(velX*delta, velY*delta);
+				delta = 0;
+			}
+		}
+		applyFriction(frictionDelta);
+		if (measure) {
+			PhysicsTelemetry.recordTick(System.nanoTime() - tickStart, subSteps, candidateTiles, candidateLines, tests, collisions);
+		}
+	}
+
+	/*
+	 * @return	Whether a moving obstacle may reach the ball during this tick, so it has to be
+	 *			stepped even at rest.
+	 */
+	public boolean nearObstacle() {
+		if (obstacles == null) {
+			return false;
+		}
+		if (obstacleCandidates.length < obstacles.size()) {
+			obstacleCandidates = new int[obstacles.size()];
+		}
+		double x = ball.getCircle().getCenterX();
+		double y = ball.getCircle().getCenterY();
+		int r = ball.getRadius();
+		return obstacles.search(x - r, y - r, x + r, y + r, obstacleCandidates) > 0;
+	}
+
+	/*
+	 * Helper method for step method.
+	 * Finds the earliest hit against a moving obstacle during the sub-step, if it is earlier
+	 * than any wall hit. Each obstacle stands still in its own frame, where the ball moves in a
+	 * straight line from where it starts, as seen at the start of the sub-step, to where it ends,
+	 * as seen at the end; over a tick the obstacles turn little enough for the line to hold.
+	 *
+	 * @param	time	Time at the start of the sub-step, in ticks.
+	 * @param	delta	Length of the sub-step.
+	 */
+	private void checkObstacles(double time, double delta) {
+		if (obstacleCandidates.length < obstacles.size()) {
+			obstacleCandidates = new int[obstacles.size()];
+		}
+		double endX = startX + velX*delta;
+		double endY = startY + velY*delta;
+		int count = obstacles.search(Math.min(startX, endX) - radius, Math.min(startY, endY) - radius,
+				Math.max(startX, endX) + radius, Math.max(startY, endY) + radius, obstacleCandidates);
+		Obstacle o;
+		double localX, localY, localVelX, localVelY, localSpeed, t;
+		for (int i=0; i<count; i++) {
+			o = obstacles.get(obstacleCandidates[i]);
+			if (passed.contains(o)) {
+				continue;
+			}
+			o.toLocal(startX, startY, time, local);
+			localX = local[0];
+			localY = local[1];
+			o.toLocal(endX, endY, time + delta, local);
+			localVelX = (local[0] - localX)/delta;
+			localVelY = (local[1] - localY)/delta;
+			localSpeed = Math.sqrt((localVelX*localVelX)+(localVelY*localVelY));
+			if (localSpeed == 0) {
+				continue;
+			}
+			//Same margin as for walls, so a ball just bounced off can leave.
+			t = o.timeOfImpact(localX, localY, localVelX, localVelY, radius, 1E-5/localSpeed,
+					Math.min(delta, smallestT), local);
+			if (t < smallestT) {
+				smallestT = t;
+				hitCount = 0;
+				obstacleHit = o;
+				obstacleApproach = (localVelX*local[0])+(localVelY*local[1]);
+				o.toWorldDirection(local[0], local[1], time + t, local);
+				obstacleNX = local[0];
+				obstacleNY = local[1];
+			}
+		}
+	}
+
+	/*
+	 * Helper method for step method.
+	 * Bounces the ball off the obstacle hit, in the obstacle's frame: the ball keeps
+	 * OBSTACLE_BOUNCE of the speed it came in with relative to the obstacle, so it picks up
+	 * the obstacle's own speed along the normal. The relative speed is the one the hit was
+	 * found with, so the ball always leaves the wall as far as the next sub-step can tell.
+	 *
+	 * @param	time	Time of the hit, in ticks.
+	 *
+	 * @return	Whether the ball bounced; it does not if it would be moving into a wall it touches.
+	 */
+	private boolean bounceObstacle(double time, boolean measure) {
+		Obstacle o = obstacleHit;
+		double hitX = startX+(smallestT*velX);
+		double hitY = startY+(smallestT*velY);
+		double newVelX = velX - (1+OBSTACLE_BOUNCE)*obstacleApproach*obstacleNX;
+		double newVelY = velY - (1+OBSTACLE_BOUNCE)*obstacleApproach*obstacleNY;
+		if (intoWall(hitX, hitY, newVelX, newVelY)) {
+			return false;
+		}
+		lastBounceX = hitX;
+		lastBounceY = hitY;
+		//The path was only followed in a straight line in the obstacle's frame, so the ball
+		//may overlap it by a fraction of a pixel; move it back out before it is hit again,
+		//unless that would move it into a wall.
+		double overlap = radius - o.getDistance(lastBounceX, lastBounceY, time);
+		if (overlap > 0 && overlap < 1 && geometry.getWallDistance(lastBounceX + overlap*obstacleNX,
+				lastBounceY + overlap*obstacleNY) > radius) {
+			lastBounceX += overlap*obstacleNX;
+			lastBounceY += overlap*obstacleNY;
+		}
+		ball.setCenter(lastBounceX, lastBounceY);
+		ball.setVelocity(newVelX, newVelY);
+		bounces++;
+		if (measure) {
+			PhysicsTelemetry.recordCollision(lastBounceX, lastBounceY, velX, velY, newVelX, newVelY, 1);
+		}
+		return true;
+	}
+
+	/*
+	 * Helper method for bounceObstacle method.
+	 * Looks for a wall within the ball's radius of a point on the sub-step's path, among the
+	 * candidate tiles found for the sub-step; none are needed when the distance field already
+	 * shows every wall out of reach, either of the whole sub-step or of the point.
+	 *
+	 * @return	Whether the ball at (x,y) touches a wall and would be moving into it.
+	 */
+	private boolean intoWall(double x, double y, double newVelX, double newVelY) {
+		//No candidate tiles were looked up; the point lies on a path clear of every wall.
+		if (clear) {
+			return false;
+		}
+		//A ball resting on a wall is a rounding error away from it.
+		double reach = radius + 1E-3;
+		if (USE_DISTANCE_FIELD && geometry.getWallDistance(x, y) > reach) {
+			return false;
+		}
+		double x1, y1, dX, dY, u, fX, fY;
+		int tile, end;
+		for (int i=0; i<query.size(); i++) {
+			tile = query.getTile(i);
+			end = geometry.getSegmentEnd(tile);
+			for (int seg=geometry.getSegmentStart(tile); seg<end; seg++) {
+				x1 = geometry.getSegmentX1(seg);
+				y1 = geometry.getSegmentY1(seg);
+				dX = geometry.getSegmentDX(seg);
+				dY = geometry.getSegmentDY(seg);
+				u = (((x-x1)*dX)+((y-y1)*dY)) / ((dX*dX)+(dY*dY));
+				u = Math.max(0, Math.min(1, u));
+				//From the nearest point of the segment to the ball's center.
+				fX = x-(x1+(u*dX));
+				fY = y-(y1+(u*dY));
+				if ((fX*fX)+(fY*fY) < reach*reach && (fX*newVelX)+(fY*newVelY) < 0) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Helper method for step method.
+	 * Slows the ball down by rolling friction, putting it to rest once it is slower than the sleep speed.
+	 *
+	 * @param	delta	what fraction of a fixed time step was calculated.
+	 */
+	private void applyFriction(double delta) {
+		Point2D vel = ball.getVelocity();
+		double speed = Math.sqrt((vel.getX()*vel.getX())+(vel.getY()*vel.getY()));
+		double newSpeed = speed - friction*delta;
+		if (newSpeed < sleepSpeed) {
+			ball.setVelocity(0, 0);
+		} else if (friction != 0) {
+			ball.setVelocity(vel.getX()*newSpeed/speed, vel.getY()*newSpeed/speed);
+		}
+	}
+
+	/*
+	 * Sets the rolling friction of this engine, FRICTION and SLEEP_SPEED by default.
+	 * A friction and sleep speed of 0 let the ball roll forever.
+	 *
+	 * @param	friction	Speed lost per tick, in pixels per tick.
+	 * @param	sleepSpeed	Speed under which the ball is put to rest.
+	 */
+	public void setFriction(double friction, double sleepSpeed) {
+		this.friction = friction;
+		this.sleepSpeed = sleepSpeed;
+	}
+
+	public double getFriction() {
+		return friction;
+	}
+
+	public double getSleepSpeed() {
+		return sleepSpeed;
+	}
+
+	/*
+	 * Helper method for step method.
+	 * Computes the times of impact against all candidate segments at once with the kernel,
+	 * then picks the earliest hit exactly as checkLines and checkCircles would.
+	 *
+	 * @return	Number of segments the hit was picked from.
+	 */
+	private int checkBatch() {
+		batch.clear();
+		for (int i=0; i<query.size(); i++) {
+			batch.addTile(geometry, query.getTile(i));
+		}
+		kernel.computeImpacts(batch, startX, startY, velX, velY, radius);
+
+		int seg = 0;
+		int offset, caps;
+		double t;
+		for (int i=0; i<query.size(); i++) {
+			//Tiles are in order of entry so no later tile can hold an earlier hit.
+			if (query.getEntryTime(i) > smallestT) {
+				break;
+			}
+			//From the batch's index of a segment to the level's.
+			offset = geometry.getSegmentStart(query.getTile(i)) - seg;
+			for (int end=batch.getTileEnd(i); seg<end; seg++) {
+				t = batch.lineMinus[seg];
+				if (t > minT && t <= smallestT) {
+					if (t != smallestT) {
+						hitCount = 0;
+					}
+					smallestT = t;
+					addHit(batch.ox[seg],batch.oy[seg]);
+				}
+				t = batch.linePlus[seg];
+				if (t > minT && t <= smallestT) {
+					if (t != smallestT) {
+						hitCount = 0;
+					}
+					smallestT = t;
+					addHit(batch.ox[seg],batch.oy[seg]);
+				}
+				caps = geometry.getSegmentCaps(seg + offset);
+				if ((caps & LevelGeometry.CAP_1) != 0) {
+					checkCap(batch.cap1Near[seg], batch.x1[seg], batch.y1[seg]);
+					checkCap(batch.cap1Far[seg], batch.x1[seg], batch.y1[seg]);
+				}
+				if ((caps & LevelGeometry.CAP_2) != 0) {
+					checkCap(batch.cap2Near[seg], batch.x2[seg], batch.y2[seg]);
+					checkCap(batch.cap2Far[seg], batch.x2[seg], batch.y2[seg]);
+				}
+			}
+		}
+		return seg;
+	}
+
+	/*
+	 * Helper method for checkBatch method.
+	 * Updates the current collision if a hit against an end point circle is shorter.
+	 *
+	 * @param	t			Time of impact, NaN if none.
+	 * @param	centerX		x of the end point.
+	 * @param	centerY		y of the end point.
+	 */
+	private void checkCap(double t, double centerX, double centerY) {
+		//Make sure the ball is traveling towards the collision point and remove overlapping circles.
+		if (t > minT && (t < smallestT || (t == smallestT && hitCount == 0))) {
+			smallestT = t;
+			hitCount = 0;
+			addHit(startX+(t*velX)-centerX,startY+(t*velY)-centerY);
+		}
+	}
+
+	/*
+	 * @return	The fastest kernel that can run: VectorImpactKernel if it is on the classpath and
+	 *			the jdk.incubator.vector module is present, ScalarImpactKernel otherwise.
+	 *			-Dflickgolf.kernel=scalar forces the scalar one.
+	 */
+	private static ImpactKernel loadKernel() {
+		if (!"scalar".equals(System.getProperty("flickgolf.kernel"))) {
+			try {
+				return (ImpactKernel) Class.forName("VectorImpactKernel").newInstance();
+			} catch (ClassNotFoundException | LinkageError e) {
+				//Not compiled in or module missing, use the scalar kernel.
+			} catch (Exception e) {
+				System.out.println("Failed to load vector kernel.");
+				e.printStackTrace();
+			}
+		}
+		return new ScalarImpactKernel();
+	}
+
+	/*
+	 * @return	Class name of the kernel used for the narrow phase.
+	 */
+	public static String getKernelName() {
+		return kernel.getClass().getName();
+	}
+
+	/*
+	 * Helper method for step method.
+	 * Intersects the ball's path with the circles around both end points of a map segment.
+	 * Updates the current collision accordingly if an equal or shorter collision is found.
+	 *
+	 * @param	seg		Index of the segment in the level.
+	 */
+	private void checkCircles(int seg) {
+		double a = (velX*velX)+(velY*velY);
+		double centerX, centerY, fX, fY, b, c, det, root, t;
+		int caps = geometry.getSegmentCaps(seg);
+		for (int i=0; i<2; i++) {
+			if ((caps & (i==0 ? LevelGeometry.CAP_1 : LevelGeometry.CAP_2)) == 0) {
+				continue;
+			}
+			centerX = (i==0) ? geometry.getSegmentX1(seg) : geometry.getSegmentX2(seg);
+			centerY = (i==0) ? geometry.getSegmentY1(seg) : geometry.getSegmentY2(seg);
+
+			//Solve |start + t*vel - center| = r for t (half-b form of the quadratic formula).
+			fX = startX-centerX;
+			fY = startY-centerY;
+			b = (fX*velX)+(fY*velY);
+			c = (fX*fX)+(fY*fY)-(radius*radius);
+			det = (b*b)-(a*c);
+			if (det >= 0) {
+				root = Math.sqrt(det);
+				for (int j=-1; j<=1; j+=2) {
+					t = (-b+(j*root))/a;
+					//Make sure the ball is traveling towards the collision point.
+					if (t > minT) {
+						//Remove overlapping circles.
+						if (t < smallestT || (t == smallestT && hitCount == 0)) {
+							smallestT = t;
+							hitCount = 0;
+							addHit(startX+(t*velX)-centerX,startY+(t*velY)-centerY);
+						}
+					}
+					if(debug) pointsOfInterest.add(new Point2D.Double(startX+(t*velX),startY+(t*velY)));
+					if (det == 0) {
+						break;
+					}
+				}
+			}
+			if(debug) collCircs.add(new Ellipse2D.Double(centerX-radius, centerY-radius, radius*2, radius*2));
+		}
+	}
+
+	/*
+	 * Helper method for step method.
+	 * Intersects the ball's path with the lines on either side of a map segment at ball's radius distance away.
+	 * Updates the current collision accordingly if an equal or shorter collision is found.
+	 *
+	 * @param	seg		Index of the segment in the level.
+	 */
+	private void checkLines(int seg) {
+		double x1 = geometry.getSegmentX1(seg);
+		double y1 = geometry.getSegmentY1(seg);
+		double dX2 = geometry.getSegmentDX(seg);
+		double dY2 = geometry.getSegmentDY(seg);
+		double oX = geometry.getSegmentOffsetX(seg);
+		double oY = geometry.getSegmentOffsetY(seg);
+		double a = (velX*dY2)-(velY*dX2);
+		double d0, d1, t, u;
+		for (int i=-1; i<=1; i+=2) {
+			if (a != 0) {
+				d0 = x1+(i*oX)-startX;
+				d1 = y1+(i*oY)-startY;
+				t = ((d0*dY2)-(d1*dX2)) / a;
+				u = ((d0*velY)-(d1*velX)) / a;
+				if (u>0 && u<1 && t>=0 && t<=1) {
+					if(debug) pointsOfInterest.add(new Point2D.Double(startX+(t*velX),startY+(t*velY)));
+					if (t > minT && t <= smallestT) {
+						if (t != smallestT) {
+							hitCount = 0;
+						}
+						smallestT = t;
+						addHit(oX,oY);
+					}
+				}
+			}
+			if(debug) collLines.add(new Line2D.Double(x1+(i*oX),y1+(i*oY),x1+(i*oX)+dX2,y1+(i*oY)+dY2));
+		}
+	}
+
+	/*
+	 * Helper method for checkLines and checkCircles methods.
+	 * Records the normal of a wall hit at the current smallest collision time.
+	 *
+	 * @param	nX	x component of the normal of the surface hit.
+	 * @param	nY	y component of the normal of the surface hit.
+	 */
+	private void addHit(double nX, double nY) {
+		if (hitCount*2 == hitNormals.length) {
+			hitNormals = Arrays.copyOf(hitNormals, hitNormals.length*2);
+		}
+		hitNormals[hitCount*2] = nX;
+		hitNormals[hitCount*2+1] = nY;
+		hitCount++;
+		if(debug) {
+			double pX = startX+(smallestT*velX);
+			double pY = startY+(smallestT*velY);
+			collLines.add(new Line2D.Double(pX-nY,pY+nX,pX+nY,pY-nX));
+		}
+	}
+
+	/*
+	 * Enables or disables collection of debug geometry for the dev overlay.
+	 * Disabling it drops the geometry collected so far.
+	 */
+	public void setDebug(boolean debug) {
+		if (this.debug && !debug) {
+			collLines.clear();
+			collCircs.clear();
+			pointsOfInterest.clear();
+		}
+		this.debug = debug;
+	}
+
+	public boolean isDebug() {
+		return debug;
+	}
+
+	/*
+	 * @return	Radius-offset lines tested during the last collision check (debug only).
+	 */
+	public ArrayList<Line2D> getCollLines() {
+		return collLines;
+	}
+
+	/*
+	 * @return	Endpoint circles tested during the last collision check (debug only).
+	 */
+	public ArrayList<Ellipse2D> getCollCircs() {
+		return collCircs;
+	}
+
+	/*
+	 * @return	Candidate intersection points found during the last collision check (debug only).
+	 */
+	public ArrayList<Point2D> getPointsOfInterest() {
+		return pointsOfInterest;
+	}
+
+	/*
+	 * @return	Number of collisions resolved since the engine was created or last reset.
+	 *			Simultaneous hits count as one.
+	 */
+	public int getBounceCount() {
+		return bounces;
+	}
+
+	public void resetBounceCount() {
+		bounces = 0;
+	}
+
+	/*
+	 * @return	x of the ball's center at the last collision resolved.
+	 */
+	public double getLastBounceX() {
+		return lastBounceX;
+	}
+
+	/*
+	 * @return	y of the ball's center at the last collision resolved.
+	 */
+	public double getLastBounceY() {
+		return lastBounceY;
+	}
+
+	/*
+	 * @return	When the ball started on the straight path it ended the last step on, in ticks
+	 *			from the start of that tick; 0 unless it bounced during the tick.
+	 */
+	public double getPathTime() {
+		return pathTime;
+	}
+
+	/*
+	 * @return	x of the ball's center where it started on the straight path it ended the last step on.
+	 */
+	public double getPathX() {
+		return pathX;
+	}
+
+	/*
+	 * @return	y of the ball's center where it started on the straight path it ended the last step on.
+	 */
+	public double getPathY() {
+		return pathY;
+	}
+
+	/*
+	 * @return	x velocity of the ball along the straight path it ended the last step on, before friction.
+	 */
+	public double getPathVelX() {
+		return pathVelX;
+	}
+
+	/*
+	 * @return	y velocity of the ball along the straight path it ended the last step on, before friction.
+	 */
+	public double getPathVelY() {
+		return pathVelY;
+	}
+
+	/*
+	 * @return	Map the engine follows, null if it was created for a fixed level.
+	 */
+	public Map getMap() {
+		return map;
+	}
+
+	public LevelGeometry getGeometry() {
+		return geometry;
+	}
+
+	/*
+	 * Sets the moving obstacles of an engine created for a fixed level; an engine following a
+	 * map uses the map's.
+	 *
+	 * @param	obstacles	Obstacles to collide with, null for none.
+	 */
+	public void setObstacles(ObstacleSet obstacles) {
+		this.obstacles = obstacles;
+	}
+
+	public ObstacleSet getObstacles() {
+		return obstacles;
+	}
+
+	public Ball getBall() {
+		return ball;
+	}
+}
@@ -0,0 +1,33 @@
+/*
+ * PhysicsEvents receives the physics events reported to the Flight Recorder.
+ *
+ * Implemented by JfrPhysicsEvents (jfr source folder), which needs the jdk.jfr API of Java 11.
+ * PhysicsTelemetry loads it when it is on the classpath, so the game itself still builds on Java 8.
+ */
+public interface PhysicsEvents {
+
+	/*
+	 * @param	nanos				Time taken by the tick.
+	 * @param	subSteps			Passes of the collision loop, one more than the collisions resolved.
+	 * @param	candidateLines		Segments in the tiles returned by the broad phase.
+	 * @param	narrowPhaseTests	Segments tested against the ball's path.
+	 * @param	collisions			Collisions resolved.
+	 */
+	public void tick(long nanos, int subSteps, int candidateLines, int narrowPhaseTests, int collisions);
+
+	/*
+	 * @param	x, y				Center of the ball at the time of impact.
+	 * @param	velX, velY			Velocity before the collision.
+	 * @param	newVelX, newVelY	Velocity after the collision.
+	 * @param	walls				Number of walls hit at the same time.
+	 */
+	public void collision(double x, double y, double velX, double velY, double newVelX, double newVelY, int walls);
+
+	/*
+	 * @param	levelName	Name of the level loaded.
+	 * @param	nanos		Time taken to load it.
+	 * @param	tiles		Tiles in the level.
+	 * @param	segments	Wall segments in the level.
+	 */
+	public void levelLoad(String levelName, long nanos, int tiles, int segments);
+}
@@ -0,0 +1,238 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * PhysicsTelemetry collects counters and histograms about the physics of every PhysicsEngine
+ * in the process, and exposes them over JMX as FlickGolf:type=PhysicsTelemetry.
+ *
+ * Off by default, in which case engines skip all measuring and pay a single flag check per tick.
+ * Turned on with -Dflickgolf.telemetry=true or through JMX. While a Flight Recorder recording
+ * is running it is on as well, and ticks, collisions and level loads are also reported as JFR
+ * events if JfrPhysicsEvents (jfr source folder, Java 11+) is on the classpath.
+ */
+public class PhysicsTelemetry implements PhysicsTelemetryMBean {
+
+	public static String OBJECT_NAME = "FlickGolf:type=PhysicsTelemetry";
+	private static String EVENTS_CLASS = "JfrPhysicsEvents";
+
+	private static volatile boolean enabled = Boolean.getBoolean("flickgolf.telemetry");
+	//Whether a Flight Recorder recording is running, kept up to date by JfrPhysicsEvents.
+	private static volatile boolean recording;
+	private static PhysicsTelemetry instance = new PhysicsTelemetry();
+	private static PhysicsEvents events = loadEvents();
+
+	private LongAdder ticks, subSteps, candidateTiles, candidateLines, narrowPhaseTests, collisions, levelLoads;
+	private Histogram tickNanos, subStepsPerTick, candidateLinesPerTick, narrowPhaseTestsPerTick;
+
+	private PhysicsTelemetry() {
+		ticks = new LongAdder();
+		subSteps = new LongAdder();
+		candidateTiles = new LongAdder();
+		candidateLines = new LongAdder();
+		narrowPhaseTests = new LongAdder();
+		collisions = new LongAdder();
+		levelLoads = new LongAdder();
+		tickNanos = new Histogram();
+		subStepsPerTick = new Histogram();
+		candidateLinesPerTick = new Histogram();
+		narrowPhaseTestsPerTick = new Histogram();
+	}
+
+	/*
+	 * @return	The Flight Recorder event sink, null if the JFR events are not on the classpath.
+	 */
+	private static PhysicsEvents loadEvents() {
+		try {
+			return (PhysicsEvents) Class.forName(EVENTS_CLASS).newInstance();
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (Exception | LinkageError e) {
+			System.out.println("Failed to load JFR events.");
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/*
+	 * Registers the telemetry with the platform MBean server, once per process.
+	 */
+	public static void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			synchronized (instance) {
+				if (!server.isRegistered(name)) {
+					server.registerMBean(instance, name);
+				}
+			}
+		} catch (Exception e) {
+			System.out.println("Failed to register telemetry.");
+			e.printStackTrace();
+		}
+	}
+
+	public static PhysicsTelemetry getInstance() {
+		return instance;
+	}
+
+	/*
+	 * @return	Whether engines should measure and report their ticks.
+	 */
+	public static boolean isActive() {
+		return enabled || recording;
+	}
+
+	static void setRecording(boolean recording) {
+		PhysicsTelemetry.recording = recording;
+	}
+
+	/*
+	 * Records one PhysicsEngine step.
+	 *
+	 * @param	nanos				Time taken by the step.
+	 * @param	steps				Passes of the collision loop.
+	 * @param	tiles				Tiles returned by the broad phase over all passes.
+	 * @param	lines				Segments in those tiles.
+	 * @param	tests				Segments tested against the ball's path.
+	 * @param	hits				Collisions resolved.
+	 */
+	public static void recordTick(long nanos, int steps, int tiles, int lines, int tests, int hits) {
+		PhysicsTelemetry t = instance;
+		t.ticks.increment();
+		t.subSteps.add(steps);
+		t.candidateTiles.add(tiles);
+		t.candidateLines.add(lines);
+		t.narrowPhaseTests.add(tests);
+		t.collisions.add(hits);
+		t.tickNanos.record(nanos);
+		t.subStepsPerTick.record(steps);
+		t.candidateLinesPerTick.record(lines);
+		t.narrowPhaseTestsPerTick.record(tests);
+		if (recording && events != null) {
+			events.tick(nanos, steps, lines, tests, hits);
+		}
+	}
+
+	/*
+	 * Records a collision resolved by a PhysicsEngine. Only reported to the Flight Recorder.
+	 */
+	public static void recordCollision(double x, double y, double velX, double velY, double newVelX, double newVelY, int walls) {
+		if (recording && events != null) {
+			events.collision(x, y, velX, velY, newVelX, newVelY, walls);
+		}
+	}
+
+	/*
+	 * Records a level loaded by a Map.
+	 */
+	public static void recordLevelLoad(String levelName, long nanos, int tiles, int segments) {
+		instance.levelLoads.increment();
+		if (recording && events != null) {
+			events.levelLoad(levelName, nanos, tiles, segments);
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		PhysicsTelemetry.enabled = enabled;
+	}
+
+	public boolean isRecording() {
+		return recording;
+	}
+
+	public long getTicks() {
+		return ticks.sum();
+	}
+
+	public long getSubSteps() {
+		return subSteps.sum();
+	}
+
+	public long getCandidateTiles() {
+		return candidateTiles.sum();
+	}
+
+	public long getCandidateLines() {
+		return candidateLines.sum();
+	}
+
+	public long getNarrowPhaseTests() {
+		return narrowPhaseTests.sum();
+	}
+
+	public long getCollisions() {
+		return collisions.sum();
+	}
+
+	public long getLevelLoads() {
+		return levelLoads.sum();
+	}
+
+	public double getTickNanosMean() {
+		return tickNanos.getMean();
+	}
+
+	public long getTickNanosP50() {
+		return tickNanos.getPercentile(0.5);
+	}
+
+	public long getTickNanosP99() {
+		return tickNanos.getPercentile(0.99);
+	}
+
+	public long getTickNanosMax() {
+		return tickNanos.getMax();
+	}
+
+	public double getSubStepsPerTickMean() {
+		return subStepsPerTick.getMean();
+	}
+
+	public long getSubStepsPerTickMax() {
+		return subStepsPerTick.getMax();
+	}
+
+	public double getCandidateLinesPerTickMean() {
+		return candidateLinesPerTick.getMean();
+	}
+
+	public long getCandidateLinesPerTickP99() {
+		return candidateLinesPerTick.getPercentile(0.99);
+	}
+
+	public double getNarrowPhaseTestsPerTickMean() {
+		return narrowPhaseTestsPerTick.getMean();
+	}
+
+	public long getNarrowPhaseTestsPerTickP99() {
+		return narrowPhaseTestsPerTick.getPercentile(0.99);
+	}
+
+	/*
+	 * @return	Time taken by each tick, in nanoseconds.
+	 */
+	public Histogram getTickNanos() {
+		return tickNanos;
+	}
+
+	public void reset() {
+		ticks.reset();
+		subSteps.reset();
+		candidateTiles.reset();
+		candidateLines.reset();
+		narrowPhaseTests.reset();
+		collisions.reset();
+		levelLoads.reset();
+		tickNanos.reset();
+		subStepsPerTick.reset();
+		candidateLinesPerTick.reset();
+		narrowPhaseTestsPerTick.reset();
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * Management interface of PhysicsTelemetry, as seen through JMX.
+ *
+ * Counts are totals since the last reset. Per tick figures come from histograms,
+ * so percentiles are within 12.5% of the real value.
+ */
+public interface PhysicsTelemetryMBean {
+
+	public boolean isEnabled();
+
+	public void setEnabled(boolean enabled);
+
+	public boolean isRecording();
+
+	public long getTicks();
+
+	public long getSubSteps();
+
+	public long getCandidateTiles();
+
+	public long getCandidateLines();
+
+	public long getNarrowPhaseTests();
+
+	public long getCollisions();
+
+	public long getLevelLoads();
+
+	public double getTickNanosMean();
+
+	public long getTickNanosP50();
+
+	public long getTickNanosP99();
+
+	public long getTickNanosMax();
+
+	public double getSubStepsPerTickMean();
+
+	public long getSubStepsPerTickMax();
+
+	public double getCandidateLinesPerTickMean();
+
+	public long getCandidateLinesPerTickP99();
+
+	public double getNarrowPhaseTestsPerTickMean();
+
+	public long getNarrowPhaseTestsPerTickP99();
+
+	public void reset();
+}
@@ -0,0 +1,58 @@
+/*
+ * ScalarImpactKernel computes times of impact one segment at a time.
+ *
+ * Uses the same arithmetic, in the same order, as PhysicsEngine's checkLines and checkCircles.
+ */
+public class ScalarImpactKernel implements ImpactKernel {
+
+	public void computeImpacts(ImpactBatch batch, double startX, double startY, double velX, double velY, double radius) {
+		compute(batch, 0, batch.count, startX, startY, velX, velY, radius);
+	}
+
+	/*
+	 * Computes the times of impact of segments from to to-1, also used by other kernels for the
+	 * segments left over after their last full vector.
+	 */
+	static void compute(ImpactBatch b, int from, int to, double startX, double startY, double velX, double velY, double radius) {
+		double aC = (velX*velX)+(velY*velY);
+		for (int k=from; k<to; k++) {
+			//Lines on either side of the segment at ball radius distance away.
+			double dX2 = b.dx[k];
+			double dY2 = b.dy[k];
+			double aL = (velX*dY2)-(velY*dX2);
+			b.lineMinus[k] = lineImpact(b.x1[k]-b.ox[k]-startX, b.y1[k]-b.oy[k]-startY, dX2, dY2, velX, velY, aL);
+			b.linePlus[k] = lineImpact(b.x1[k]+b.ox[k]-startX, b.y1[k]+b.oy[k]-startY, dX2, dY2, velX, velY, aL);
+
+			//Circles around both end points.
+			double fX = startX-b.x1[k];
+			double fY = startY-b.y1[k];
+			double bC = (fX*velX)+(fY*velY);
+			double det = (bC*bC)-(aC*((fX*fX)+(fY*fY)-(radius*radius)));
+			double root = Math.sqrt(det);
+			b.cap1Near[k] = (-bC-root)/aC;
+			b.cap1Far[k] = (det > 0) ? (-bC+root)/aC : Double.NaN;
+
+			fX = startX-b.x2[k];
+			fY = startY-b.y2[k];
+			bC = (fX*velX)+(fY*velY);
+			det = (bC*bC)-(aC*((fX*fX)+(fY*fY)-(radius*radius)));
+			root = Math.sqrt(det);
+			b.cap2Near[k] = (-bC-root)/aC;
+			b.cap2Far[k] = (det > 0) ? (-bC+root)/aC : Double.NaN;
+		}
+	}
+
+	/*
+	 * @param	d0, d1	Start of the line relative to the ball.
+	 *
+	 * @return	Time of impact against the line, NaN if the ball does not cross it within the step.
+	 */
+	private static double lineImpact(double d0, double d1, double dX2, double dY2, double velX, double velY, double a) {
+		double t = ((d0*dY2)-(d1*dX2)) / a;
+		double u = ((d0*velY)-(d1*velX)) / a;
+		if (a != 0 && u>0 && u<1 && t>=0 && t<=1) {
+			return t;
+		}
+		return Double.NaN;
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * SegmentBVH is a static bounding volume hierarchy over freeform segments of a level.
+ *
+ * Freeform segments are not bound to the tile grid, so a detailed obstacle may put hundreds of
+ * them in one tile. The tree splits them at the median of the longest axis until at most
+ * LEAF_SIZE are left, in a box no longer than LEAF_EXTENT unless alone, and sorts the segments
+ * so that every leaf is a contiguous range.
+ * Ties are broken by segment index, so building again from the sorted segments (as LevelFile
+ * does) gives the same tree and order.
+ * LevelGeometry treats each leaf as an extra cell after the tiles, which lets the narrow phase
+ * test leaves exactly like tiles.
+ *
+ * Nodes are stored in flat arrays, the children of node i being nodes left[i] and left[i]+1.
+ * Built once at load time and never changed, so it can be shared like the rest of the geometry.
+ */
+public class SegmentBVH {
+
+	//Most segments in a leaf.
+	public static int LEAF_SIZE = 4;
+	//Longest side of a leaf's box with several segments, so long walls are not tested together.
+	public static double LEAF_EXTENT = 32;
+
+	private double[] minX, minY, maxX, maxY;
+	//First child of internal nodes, -1 for leaves.
+	private int[] left;
+	//Leaf number of leaves, -1 for internal nodes.
+	private int[] leaf;
+	private int nodeCount, leafCount;
+	//End of each leaf's segment range, relative to the first freeform segment.
+	private int[] leafEnds;
+
+	//Scratch state used while building.
+	private int[] order;
+	private double[] keys;
+
+	/*
+	 * Constructor for SegmentBVH object.
+	 * Builds the tree and reorders the segments first to first+count-1 of the arrays in place to match it.
+	 *
+	 * @param	segX1, segY1, segX2, segY2	Segments of the level.
+	 * @param	segCaps		Cap flags of the segments, reordered with them; may be null.
+	 * @param	first	Index of the first freeform segment.
+	 * @param	count	Number of freeform segments.
+	 */
+	public SegmentBVH(double[] segX1, double[] segY1, double[] segX2, double[] segY2, byte[] segCaps, int first, int count) {
+		int maxNodes = Math.max(1, 2*count);
+		minX = new double[maxNodes];
+		minY = new double[maxNodes];
+		maxX = new double[maxNodes];
+		maxY = new double[maxNodes];
+		left = new int[maxNodes];
+		leaf = new int[maxNodes];
+		leafEnds = new int[Math.max(1, count)];
+		order = new int[count];
+		keys = new double[count];
+		for (int i=0; i<count; i++) {
+			order[i] = first + i;
+		}
+		if (count > 0) {
+			nodeCount = 1;
+			build(0, 0, count, segX1, segY1, segX2, segY2);
+		}
+
+		//Sort the segments into leaf order.
+		double[][] arrays = {segX1, segY1, segX2, segY2};
+		for (double[] array : arrays) {
+			double[] sorted = new double[count];
+			for (int i=0; i<count; i++) {
+				sorted[i] = array[order[i]];
+			}
+			System.arraycopy(sorted, 0, array, first, count);
+		}
+		if (segCaps != null) {
+			byte[] sorted = new byte[count];
+			for (int i=0; i<count; i++) {
+				sorted[i] = segCaps[order[i]];
+			}
+			System.arraycopy(sorted, 0, segCaps, first, count);
+		}
+		order = null;
+		keys = null;
+	}
+
+	/*
+	 * Helper method for constructor.
+	 * Builds node and its subtree from the segments order[from] to order[to-1].
+	 */
+	private void build(int node, int from, int to, double[] segX1, double[] segY1, double[] segX2, double[] segY2) {
+		double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+		double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+		int seg;
+		for (int i=from; i<to; i++) {
+			seg = order[i];
+			x0 = Math.min(x0, Math.min(segX1[seg], segX2[seg]));
+			y0 = Math.min(y0, Math.min(segY1[seg], segY2[seg]));
+			x1 = Math.max(x1, Math.max(segX1[seg], segX2[seg]));
+			y1 = Math.max(y1, Math.max(segY1[seg], segY2[seg]));
+		}
+		minX[node] = x0;
+		minY[node] = y0;
+		maxX[node] = x1;
+		maxY[node] = y1;
+
+		if (to - from <= LEAF_SIZE && (to - from == 1 || Math.max(x1 - x0, y1 - y0) <= LEAF_EXTENT)) {
+			//Keep the segments of a leaf in index order.
+			for (int i=from+1; i<to; i++) {
+				for (int j=i; j>from && order[j-1] > order[j]; j--) {
+					swap(j-1, j);
+				}
+			}
+			left[node] = -1;
+			leaf[node] = leafCount;
+			leafEnds[leafCount++] = to;
+			return;
+		}
+
+		//Split at the median center along the longest side of the box.
+		boolean alongX = (x1 - x0) >= (y1 - y0);
+		for (int i=from; i<to; i++) {
+			seg = order[i];
+			keys[i] = alongX ? segX1[seg] + segX2[seg] : segY1[seg] + segY2[seg];
+		}
+		int mid = (from + to) >>> 1;
+		select(from, to-1, mid);
+
+		leaf[node] = -1;
+		left[node] = nodeCount;
+		nodeCount += 2;
+		build(left[node], from, mid, segX1, segY1, segX2, segY2);
+		build(left[node]+1, mid, to, segX1, segY1, segX2, segY2);
+	}
+
+	/*
+	 * Helper method for build method.
+	 * Partially sorts order[lo..hi] by key, then segment index, so that position k holds the
+	 * segment that belongs there and no segment before k comes after it.
+	 */
+	private void select(int lo, int hi, int k) {
+		while (lo < hi) {
+			int m = (lo + hi) >>> 1;
+			double pivot = keys[m];
+			int pivotSeg = order[m];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (keys[i] < pivot || (keys[i] == pivot && order[i] < pivotSeg)) {
+					i++;
+				}
+				while (keys[j] > pivot || (keys[j] == pivot && order[j] > pivotSeg)) {
+					j--;
+				}
+				if (i <= j) {
+					swap(i++, j--);
+				}
+			}
+			if (k <= j) {
+				hi = j;
+			} else if (k >= i) {
+				lo = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void swap(int i, int j) {
+		int o = order[i];
+		order[i] = order[j];
+		order[j] = o;
+		double key = keys[i];
+		keys[i] = keys[j];
+		keys[j] = key;
+	}
+
+	/*
+	 * Finds the leaves whose bounds overlap a box.
+	 *
+	 * @param	x0, y0, x1, y1	Box to search, from its min to its max corner.
+	 * @param	firstCell		Cell number given to leaf 0 in the query.
+	 * @param	query			Query the leaves found are added to, with an entry time of 0.
+	 */
+	public void search(double x0, double y0, double x1, double y1, int firstCell, TileQuery query) {
+		if (nodeCount == 0) {
+			return;
+		}
+		int[] stack = query.getStack(nodeCount);
+		int top = 0;
+		int node;
+		stack[top++] = 0;
+		while (top > 0) {
+			node = stack[--top];
+			if (minX[node] > x1 || maxX[node] < x0 || minY[node] > y1 || maxY[node] < y0) {
+				continue;
+			}
+			if (leaf[node] >= 0) {
+				query.add(firstCell + leaf[node], 0);
+			} else {
+				stack[top++] = left[node]+1;
+				stack[top++] = left[node];
+			}
+		}
+	}
+
+	/*
+	 * @return	Number of leaves.
+	 */
+	public int getLeafCount() {
+		return leafCount;
+	}
+
+	/*
+	 * @return	End of the segment range of a leaf, relative to the first freeform segment.
+	 */
+	public int getLeafEnd(int leaf) {
+		return leafEnds[leaf];
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+}
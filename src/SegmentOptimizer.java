@@ -0,0 +1,301 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/*
+ * SegmentOptimizer simplifies the collision geometry of a level offline.
+ *
+ * Levels are stamped tile by tile from segment templates, so a straight wall across 20 tiles is
+ * 20 segments, and every seam between them is an end point cap a ball rolling along the wall
+ * can catch on. The optimizer:
+ * 	- merges collinear segments that touch or overlap into one, which also drops duplicates;
+ * 	- tests the cap of each corner once instead of once per segment meeting there;
+ * 	- drops the caps of corners the walls around them already cover, where every angle between
+ * 	  two walls is under half a turn and every wall is at least a ball radius long.
+ * Merged tile segments that still fit in one tile stay with it, the others become freeform
+ * segments; anything merged with a freeform segment stays freeform, the SegmentBVH being
+ * better suited to the many short segments of curves than a tile.
+ * The result is meant for LevelCompiler (-O); caps are only dropped where it is safe for balls up
+ * to the radius the level was expanded for.
+ */
+public class SegmentOptimizer {
+
+	//Distance under which two points or lines are taken to be the same, in pixels.
+	public static double EPSILON = 1E-6;
+
+	/*
+	 * A segment while optimizing, with its end points ordered along its direction.
+	 */
+	private static class Segment {
+		double x1, y1, x2, y2;
+		//Unit direction, pointing right (or down when vertical), and the line's offset from the origin.
+		double dirX, dirY, offset;
+		//The same rounded to EPSILON, equal for segments on the same line.
+		long lineX, lineY, lineOffset;
+		//Positions of the end points along the direction.
+		double t1, t2;
+		int caps;
+		boolean freeform;
+
+		Segment(double x1, double y1, double x2, double y2) {
+			double len = Math.sqrt(((x2-x1)*(x2-x1))+((y2-y1)*(y2-y1)));
+			dirX = (x2-x1)/len;
+			dirY = (y2-y1)/len;
+			if (dirX < 0 || (dirX == 0 && dirY < 0)) {
+				dirX = -dirX;
+				dirY = -dirY;
+			}
+			double a = (x1*dirX)+(y1*dirY);
+			double b = (x2*dirX)+(y2*dirY);
+			if (a <= b) {
+				set(x1, y1, a, x2, y2, b);
+			} else {
+				set(x2, y2, b, x1, y1, a);
+			}
+			offset = (x1*dirY)-(y1*dirX);
+			lineX = Math.round(dirX/EPSILON);
+			lineY = Math.round(dirY/EPSILON);
+			lineOffset = Math.round(offset/EPSILON);
+		}
+
+		void set(double x1, double y1, double t1, double x2, double y2, double t2) {
+			this.x1 = x1;
+			this.y1 = y1;
+			this.t1 = t1;
+			this.x2 = x2;
+			this.y2 = y2;
+			this.t2 = t2;
+		}
+
+		double length() {
+			return t2 - t1;
+		}
+	}
+
+	private int segmentsBefore, segmentsAfter;
+	private int capsBefore, capsAfter;
+
+	/*
+	 * Optimizes the geometry of a level.
+	 *
+	 * @param	level	Level to optimize, not changed.
+	 *
+	 * @return	A level with the same tiles and walls, in fewer segments and caps.
+	 */
+	public LevelGeometry optimize(LevelGeometry level) {
+		segmentsBefore = level.getSegmentCount();
+		capsBefore = 0;
+		ArrayList<Segment> segments = new ArrayList<Segment>();
+		for (int i=0; i<level.getSegmentCount(); i++) {
+			int caps = level.getSegmentCaps(i);
+			capsBefore += ((caps & LevelGeometry.CAP_1) != 0 ? 1 : 0) + ((caps & LevelGeometry.CAP_2) != 0 ? 1 : 0);
+			//Points have no wall to merge, keep them as they are.
+			if (level.getSegmentDX(i) != 0 || level.getSegmentDY(i) != 0) {
+				Segment seg = new Segment(level.getSegmentX1(i), level.getSegmentY1(i),
+						level.getSegmentX2(i), level.getSegmentY2(i));
+				seg.freeform = i >= level.getFreeformStart();
+				segments.add(seg);
+			}
+		}
+
+		ArrayList<Segment> merged = merge(segments);
+		assignCaps(merged, level.getRadius());
+		for (int i=0; i<level.getSegmentCount(); i++) {
+			if (level.getSegmentDX(i) == 0 && level.getSegmentDY(i) == 0) {
+				//A post with no direction, only its caps need keeping.
+				Segment point = new Segment(level.getSegmentX1(i), level.getSegmentY1(i), level.getSegmentX1(i)+1, level.getSegmentY1(i));
+				point.set(level.getSegmentX1(i), level.getSegmentY1(i), 0, level.getSegmentX2(i), level.getSegmentY2(i), 0);
+				point.caps = level.getSegmentCaps(i);
+				point.freeform = i >= level.getFreeformStart();
+				merged.add(point);
+			}
+		}
+		return build(level, merged);
+	}
+
+	/*
+	 * Helper method for optimize method.
+	 * Sorts the segments by line, then along it, and joins every run that touches or overlaps.
+	 */
+	private ArrayList<Segment> merge(ArrayList<Segment> segments) {
+		Segment[] sorted = segments.toArray(new Segment[segments.size()]);
+		Arrays.sort(sorted, new Comparator<Segment>() {
+			public int compare(Segment a, Segment b) {
+				if (a.lineX != b.lineX) {
+					return (a.lineX < b.lineX) ? -1 : 1;
+				}
+				if (a.lineY != b.lineY) {
+					return (a.lineY < b.lineY) ? -1 : 1;
+				}
+				if (a.lineOffset != b.lineOffset) {
+					return (a.lineOffset < b.lineOffset) ? -1 : 1;
+				}
+				return Double.compare(a.t1, b.t1);
+			}
+		});
+
+		ArrayList<Segment> merged = new ArrayList<Segment>();
+		Segment run = null;
+		for (Segment seg : sorted) {
+			if (run != null && sameLine(run, seg) && seg.t1 <= run.t2 + EPSILON) {
+				if (seg.t2 > run.t2) {
+					run.set(run.x1, run.y1, run.t1, seg.x2, seg.y2, seg.t2);
+				}
+				run.freeform |= seg.freeform;
+			} else {
+				run = seg;
+				merged.add(run);
+			}
+		}
+		return merged;
+	}
+
+	private static boolean sameLine(Segment a, Segment b) {
+		return a.lineX == b.lineX && a.lineY == b.lineY && a.lineOffset == b.lineOffset;
+	}
+
+	/*
+	 * Helper method for optimize method.
+	 * Gives the cap of every corner to one of the segments meeting there, unless the walls
+	 * around it already keep any ball of the given radius from touching it.
+	 */
+	private void assignCaps(ArrayList<Segment> segments, double radius) {
+		//Segment ends meeting at each corner, as segment index*2 + end.
+		HashMap<String,ArrayList<Integer>> corners = new HashMap<String,ArrayList<Integer>>();
+		for (int i=0; i<segments.size(); i++) {
+			Segment seg = segments.get(i);
+			addCorner(corners, seg.x1, seg.y1, i*2);
+			addCorner(corners, seg.x2, seg.y2, i*2+1);
+		}
+		for (ArrayList<Integer> ends : corners.values()) {
+			if (!covered(segments, ends, radius)) {
+				int end = ends.get(0);
+				segments.get(end/2).caps |= (end % 2 == 0) ? LevelGeometry.CAP_1 : LevelGeometry.CAP_2;
+			}
+		}
+	}
+
+	private static void addCorner(HashMap<String,ArrayList<Integer>> corners, double x, double y, int end) {
+		String key = Math.round(x/EPSILON) + "," + Math.round(y/EPSILON);
+		ArrayList<Integer> ends = corners.get(key);
+		if (ends == null) {
+			ends = new ArrayList<Integer>();
+			corners.put(key, ends);
+		}
+		ends.add(end);
+	}
+
+	/*
+	 * Helper method for assignCaps method.
+	 * A ball can only touch a corner's cap from between two walls meeting there at half a turn
+	 * or more, or past the end of a wall shorter than the ball's radius.
+	 *
+	 * @return	Whether no ball can touch the cap of a corner.
+	 */
+	private static boolean covered(ArrayList<Segment> segments, ArrayList<Integer> ends, double radius) {
+		if (ends.size() < 3) {
+			return false;
+		}
+		double[] angles = new double[ends.size()];
+		for (int i=0; i<ends.size(); i++) {
+			Segment seg = segments.get(ends.get(i)/2);
+			if (seg.length() < radius) {
+				return false;
+			}
+			//Direction from the corner along the wall.
+			boolean first = ends.get(i) % 2 == 0;
+			angles[i] = first ? Math.atan2(seg.dirY, seg.dirX) : Math.atan2(-seg.dirY, -seg.dirX);
+		}
+		Arrays.sort(angles);
+		double gap = angles[0] + 2*Math.PI - angles[angles.length-1];
+		for (int i=1; i<angles.length; i++) {
+			gap = Math.max(gap, angles[i] - angles[i-1]);
+		}
+		return gap < Math.PI - EPSILON;
+	}
+
+	/*
+	 * Helper method for optimize method.
+	 * Packs the segments back into a level, each in the tile that holds both of its end points
+	 * or else as a freeform segment.
+	 */
+	private LevelGeometry build(LevelGeometry level, ArrayList<Segment> segments) {
+		int tiles = level.getTileCount();
+		int cols = level.getCols();
+		int size = level.getTileSize();
+		int[] tileIds = new int[tiles];
+		for (int i=0; i<tiles; i++) {
+			tileIds[i] = level.getTile(i);
+		}
+		int[] tileOf = new int[segments.size()];
+		int[] tileOffsets = new int[tiles+1];
+		int col, row;
+		for (int i=0; i<segments.size(); i++) {
+			Segment seg = segments.get(i);
+			col = (int) Math.floor((seg.x1 + seg.x2)/2/size) - level.getOriginCol();
+			row = (int) Math.floor((seg.y1 + seg.y2)/2/size) - level.getOriginRow();
+			tileOf[i] = -1;
+			if (!seg.freeform && col >= 0 && col < cols && row >= 0 && row < level.getRows()
+					&& inTile(seg.x1, seg.y1, col + level.getOriginCol(), row + level.getOriginRow(), size)
+					&& inTile(seg.x2, seg.y2, col + level.getOriginCol(), row + level.getOriginRow(), size)) {
+				tileOf[i] = col + row*cols;
+				tileOffsets[tileOf[i]+1]++;
+			}
+		}
+		for (int i=0; i<tiles; i++) {
+			tileOffsets[i+1] += tileOffsets[i];
+		}
+
+		int count = segments.size();
+		double[] segX1 = new double[count];
+		double[] segY1 = new double[count];
+		double[] segX2 = new double[count];
+		double[] segY2 = new double[count];
+		byte[] segCaps = new byte[count];
+		int[] next = Arrays.copyOf(tileOffsets, tiles);
+		int freeform = tileOffsets[tiles];
+		int seg;
+		segmentsAfter = count;
+		capsAfter = 0;
+		for (int i=0; i<count; i++) {
+			seg = (tileOf[i] >= 0) ? next[tileOf[i]]++ : freeform++;
+			Segment s = segments.get(i);
+			segX1[seg] = s.x1;
+			segY1[seg] = s.y1;
+			segX2[seg] = s.x2;
+			segY2[seg] = s.y2;
+			segCaps[seg] = (byte) s.caps;
+			capsAfter += ((s.caps & LevelGeometry.CAP_1) != 0 ? 1 : 0) + ((s.caps & LevelGeometry.CAP_2) != 0 ? 1 : 0);
+		}
+		return new LevelGeometry(level.getOriginCol(), level.getOriginRow(), cols, level.getRows(), size,
+				tileIds, tileOffsets, segX1, segY1, segX2, segY2, segCaps, level.getStart(), level.getRadius());
+	}
+
+	private static boolean inTile(double x, double y, int col, int row, int size) {
+		return x >= col*size - EPSILON && x <= (col+1)*size + EPSILON
+				&& y >= row*size - EPSILON && y <= (row+1)*size + EPSILON;
+	}
+
+	/*
+	 * @return	Number of segments of the last level optimized, before and after.
+	 */
+	public int getSegmentsBefore() {
+		return segmentsBefore;
+	}
+
+	public int getSegmentsAfter() {
+		return segmentsAfter;
+	}
+
+	/*
+	 * @return	Number of end point caps tested in the last level optimized, before and after.
+	 */
+	public int getCapsBefore() {
+		return capsBefore;
+	}
+
+	public int getCapsAfter() {
+		return capsAfter;
+	}
+}
@@ -0,0 +1,329 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * SessionHost runs many independent games in one process.
+ *
+ * Sessions are spread over a fixed number of shards, each stepped by one worker thread.
+ * A central scheduler fires every tick at a fixed rate and waits for all shards to finish it.
+ * A shard only steps the sessions whose ball is moving or that received input, so idle
+ * sessions cost nothing. Sessions on the same level share one immutable LevelGeometry.
+ *
+ * Usage (load test with a loopback client):
+ * java -Djava.awt.headless=true SessionHost [sessions] [shards] [seconds] [tick rate] [flicks per second]
+ */
+public class SessionHost {
+
+	private Shard[] shards;
+	private ExecutorService workers;
+	private ScheduledExecutorService scheduler;
+	private long periodNanos;
+
+	private ConcurrentHashMap<Integer,GameSession> sessions;
+	private AtomicInteger nextId;
+	private HashMap<String,LevelGeometry> levels;
+	//Moving obstacles of every level loaded that has any.
+	private HashMap<LevelGeometry,ObstacleSet> obstacles;
+
+	//Statistics, written by the scheduler thread.
+	private long startNanos;
+	private AtomicLong ticks;
+	private AtomicLong sessionSteps;
+	private Histogram tickJitter;
+	private Histogram tickDuration;
+
+	/*
+	 * Group of sessions stepped by one worker thread.
+	 */
+	private static class Shard implements Callable<Void> {
+		//Sessions that received input since the last tick.
+		private ConcurrentLinkedQueue<GameSession> woken = new ConcurrentLinkedQueue<GameSession>();
+		//Sessions being stepped; only touched by the worker running the shard.
+		private GameSession[] active = new GameSession[64];
+		private int activeCount;
+		private long steps;
+
+		public Void call() {
+			GameSession session;
+			while ((session = woken.poll()) != null) {
+				session.applyInputs();
+				if (!session.active) {
+					if (activeCount == active.length) {
+						active = Arrays.copyOf(active, activeCount*2);
+					}
+					active[activeCount++] = session;
+					session.active = true;
+				}
+			}
+			int i = 0;
+			while (i < activeCount) {
+				session = active[i];
+				session.step();
+				steps++;
+				if (session.isMoving()) {
+					i++;
+				} else {
+					//Came to rest, stop stepping it until the next input.
+					session.active = false;
+					active[i] = active[--activeCount];
+					active[activeCount] = null;
+				}
+			}
+			return null;
+		}
+	}
+
+	/*
+	 * Constructor for SessionHost object.
+	 *
+	 * @param	shardCount	Number of worker threads stepping sessions.
+	 * @param	tickRate	Physics ticks per second.
+	 */
+	public SessionHost(int shardCount, int tickRate) {
+		shards = new Shard[shardCount];
+		for (int i=0; i<shardCount; i++) {
+			shards[i] = new Shard();
+		}
+		periodNanos = 1000000000L / tickRate;
+		sessions = new ConcurrentHashMap<Integer,GameSession>();
+		nextId = new AtomicInteger();
+		levels = new HashMap<String,LevelGeometry>();
+		obstacles = new HashMap<LevelGeometry,ObstacleSet>();
+		ticks = new AtomicLong();
+		sessionSteps = new AtomicLong();
+		tickJitter = new Histogram();
+		tickDuration = new Histogram();
+	}
+
+	/*
+	 * Loads a level once; later calls with the same name return the same shared geometry.
+	 *
+	 * @param	levelName	Name of level to load (CSV file)
+	 * @throws	IllegalArgumentException	If the level fails to load.
+	 */
+	public synchronized LevelGeometry getLevel(String levelName) {
+		LevelGeometry level = levels.get(levelName);
+		if (level == null) {
+			Map map = new Map();
+			if (!map.loadLevel(levelName)) {
+				throw new IllegalArgumentException("Failed to load level: " + levelName);
+			}
+			level = map.getGeometry(Map.BALL_RADIUS);
+			levels.put(levelName, level);
+			if (map.getObstacles() != null) {
+				obstacles.put(level, map.getObstacles());
+			}
+		}
+		return level;
+	}
+
+	/*
+	 * Creates a new session with its ball at rest on the level's starting tile, and the level's
+	 * moving obstacles if it was loaded by getLevel.
+	 *
+	 * @return	The session, also reachable by its id.
+	 */
+	public GameSession createSession(LevelGeometry level) {
+		ObstacleSet moving;
+		synchronized (this) {
+			moving = obstacles.get(level);
+		}
+		GameSession session = new GameSession(nextId.getAndIncrement(), level, moving);
+		sessions.put(session.getId(), session);
+		return session;
+	}
+
+	/*
+	 * Removes a session; it stops being stepped from the next tick it would have been.
+	 */
+	public void removeSession(int sessionId) {
+		GameSession session = sessions.remove(sessionId);
+		if (session != null) {
+			//Stop the ball so the shard drops the session from its active list.
+			submit(session, new GameInput(GameInput.FLICK, 0, 0));
+		}
+	}
+
+	public GameSession getSession(int sessionId) {
+		return sessions.get(sessionId);
+	}
+
+	public int getSessionCount() {
+		return sessions.size();
+	}
+
+	/*
+	 * Queues an input for a session, applied at the start of the next tick. Callable from any thread.
+	 *
+	 * @return	false if there is no such session.
+	 */
+	public boolean submit(int sessionId, GameInput input) {
+		GameSession session = sessions.get(sessionId);
+		if (session == null) {
+			return false;
+		}
+		submit(session, input);
+		return true;
+	}
+
+	private void submit(GameSession session, GameInput input) {
+		if (session.offer(input)) {
+			shards[session.getId() % shards.length].woken.add(session);
+		}
+	}
+
+	/*
+	 * Starts ticking at the fixed rate.
+	 */
+	public void start() {
+		workers = Executors.newFixedThreadPool(shards.length, new NamedThreads("session-worker"));
+		scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreads("session-scheduler"));
+		startNanos = System.nanoTime();
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				tick();
+			}
+		}, 0, periodNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/*
+	 * Stops ticking and waits for the current tick to finish.
+	 */
+	public void stop() throws InterruptedException {
+		scheduler.shutdown();
+		scheduler.awaitTermination(10, TimeUnit.SECONDS);
+		workers.shutdown();
+		workers.awaitTermination(10, TimeUnit.SECONDS);
+	}
+
+	/*
+	 * Runs one tick on all shards in parallel.
+	 */
+	private void tick() {
+		long now = System.nanoTime();
+		tickJitter.record(now - (startNanos + ticks.get()*periodNanos));
+		try {
+			List<Future<Void>> results = workers.invokeAll(Arrays.asList(shards));
+			for (Future<Void> result : results) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		} catch (ExecutionException e) {
+			System.out.println("Failed to step sessions.");
+			e.getCause().printStackTrace();
+		}
+		tickDuration.record(System.nanoTime() - now);
+		long steps = 0;
+		for (Shard shard : shards) {
+			steps += shard.steps;
+		}
+		sessionSteps.set(steps);
+		ticks.incrementAndGet();
+	}
+
+	/*
+	 * @return	Number of sessions currently being stepped.
+	 */
+	public int getActiveCount() {
+		int count = 0;
+		for (Shard shard : shards) {
+			count += shard.activeCount;
+		}
+		return count;
+	}
+
+	public long getTicks() {
+		return ticks.get();
+	}
+
+	/*
+	 * @return	Total number of single session steps done by all shards.
+	 */
+	public long getSessionSteps() {
+		return sessionSteps.get();
+	}
+
+	/*
+	 * @return	Delay between when each tick was due and when it started, in nanoseconds.
+	 */
+	public Histogram getTickJitter() {
+		return tickJitter;
+	}
+
+	/*
+	 * @return	Time to step all shards for each tick, in nanoseconds.
+	 */
+	public Histogram getTickDuration() {
+		return tickDuration;
+	}
+
+	/*
+	 * Names the host's threads and keeps them from blocking JVM exit.
+	 */
+	private static class NamedThreads implements ThreadFactory {
+		private String name;
+		private AtomicInteger count = new AtomicInteger();
+
+		NamedThreads(String name) {
+			this.name = name;
+		}
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, name + "-" + count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int sessionCount = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+		int shardCount = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		double seconds = (args.length > 2) ? Double.parseDouble(args[2]) : 10;
+		int tickRate = (args.length > 3) ? Integer.parseInt(args[3]) : 300;
+		double flickRate = (args.length > 4) ? Double.parseDouble(args[4]) : sessionCount/10.0;
+
+		PhysicsTelemetry.register();
+		SessionHost host = new SessionHost(shardCount, tickRate);
+		LevelGeometry level = host.getLevel("Assets/level1.csv");
+		ArrayList<Integer> ids = new ArrayList<Integer>();
+		for (int i=0; i<sessionCount; i++) {
+			ids.add(host.createSession(level).getId());
+		}
+
+		LoopbackClient client = new LoopbackClient(host, ids, flickRate, 1);
+		host.start();
+		client.start();
+		Thread.sleep((long) (seconds*1000));
+		client.stop();
+		host.stop();
+
+		double elapsed = host.getTicks() * (double) host.periodNanos / 1E9;
+		System.out.printf("sessions %d, shards %d, ticks %d (%.1f/s target %d)%n",
+				sessionCount, shardCount, host.getTicks(), host.getTicks()/seconds, tickRate);
+		System.out.printf("flicks sent %d, active at end %d, session steps %d (%.0f/s, %.0f per core)%n",
+				client.getSent(), host.getActiveCount(), host.getSessionSteps(),
+				host.getSessionSteps()/elapsed, host.getSessionSteps()/elapsed/shardCount);
+		Histogram duration = host.getTickDuration();
+		Histogram jitter = host.getTickJitter();
+		System.out.printf("tick time   us: mean %.1f p50 %.1f p99 %.1f max %.1f%n", duration.getMean()/1E3,
+				duration.getPercentile(0.5)/1E3, duration.getPercentile(0.99)/1E3, duration.getMax()/1E3);
+		System.out.printf("tick jitter us: mean %.1f p50 %.1f p99 %.1f max %.1f%n", jitter.getMean()/1E3,
+				jitter.getPercentile(0.5)/1E3, jitter.getPercentile(0.99)/1E3, jitter.getMax()/1E3);
+	}
+}
@@ -0,0 +1,219 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.stream.IntStream;
+
+import javax.imageio.ImageIO;
+
+/*
+ * ShotExplorer simulates a whole grid of flicks from one start point of a level.
+ *
+ * Every shot is independent so they are simulated in parallel, one Ball and PhysicsEngine per shot
+ * sharing the immutable LevelGeometry. Each shot has its own copy of the level's moving obstacles,
+ * starting at tick 0 as when the level loads. Writes the final positions as a heatmap over the level, the bounce
+ * counts as a heatmap over the flick grid and every shot as CSV, to help tune courses without hand-flicking.
+ *
+ * Usage: java -Djava.awt.headless=true ShotExplorer [level] [startX startY] [maxDrag] [dragStep] [maxTicks] [output prefix]
+ */
+public class ShotExplorer {
+
+	//Shots with a speed below this are considered to have come to rest.
+	private static double REST_SPEED = 1E-3;
+	//Size in pixels of one bin of the final position heatmap.
+	private static int BIN_SIZE = 4;
+
+	private Map map;
+	private LevelGeometry geometry;
+	private ObstacleSet obstacles;
+	private double startX, startY;
+	private int maxDrag, dragStep, maxTicks;
+
+	//Results per shot, indexed by shot number.
+	private int gridSize;
+	private double[] finalX, finalY;
+	private int[] bounces, ticks;
+
+	/*
+	 * Constructor for ShotExplorer object.
+	 *
+	 * @param	map			Map with a level loaded.
+	 * @param	startX		x position of the ball before every shot.
+	 * @param	startY		y position of the ball before every shot.
+	 * @param	maxDrag		Largest mouse drag on either axis, in pixels.
+	 * @param	dragStep	Distance between two flicks of the grid, in pixels of mouse drag.
+	 * @param	maxTicks	Physics ticks after which a shot still moving is stopped.
+	 */
+	public ShotExplorer(Map map, double startX, double startY, int maxDrag, int dragStep, int maxTicks) {
+		this.map = map;
+		this.startX = startX;
+		this.startY = startY;
+		this.maxDrag = maxDrag;
+		this.dragStep = dragStep;
+		this.maxTicks = maxTicks;
+		gridSize = 2*(maxDrag/dragStep) + 1;
+	}
+
+	/*
+	 * Simulates every shot of the grid, in parallel over all cores.
+	 */
+	public void explore() {
+		int shots = gridSize*gridSize;
+		finalX = new double[shots];
+		finalY = new double[shots];
+		bounces = new int[shots];
+		ticks = new int[shots];
+
+		geometry = map.getGeometry(Map.BALL_RADIUS);
+		obstacles = map.getObstacles();
+		IntStream.range(0, shots).parallel().forEach(this::simulate);
+	}
+
+	/*
+	 * Simulates one shot until it comes to rest out of reach of the obstacles or runs out of ticks.
+	 *
+	 * @param	shot	Number of the shot in the grid.
+	 */
+	private void simulate(int shot) {
+		Ball ball = new Ball(new Point((int) startX, (int) startY), Map.BALL_RADIUS);
+		ball.setCenter(startX, startY);
+		ball.setVelocity(getDragX(shot)/FlickGolf.FLICK_SCALE, getDragY(shot)/FlickGolf.FLICK_SCALE);
+		PhysicsEngine engine = new PhysicsEngine(geometry, ball);
+		ObstacleSet moving = (obstacles != null) ? obstacles.copy(0) : null;
+		engine.setObstacles(moving);
+
+		int tick = 0;
+		//A ball at rest is not done while an obstacle can still knock it on.
+		while (tick < maxTicks && (ball.getVelocity().distance(0, 0) >= REST_SPEED || engine.nearObstacle())) {
+			engine.step(1.0);
+			if (moving != null) {
+				moving.advance();
+			}
+			tick++;
+		}
+		finalX[shot] = ball.getCircle().getCenterX();
+		finalY[shot] = ball.getCircle().getCenterY();
+		bounces[shot] = engine.getBounceCount();
+		ticks[shot] = tick;
+	}
+
+	private int getDragX(int shot) {
+		return (shot % gridSize)*dragStep - (gridSize/2)*dragStep;
+	}
+
+	private int getDragY(int shot) {
+		return (shot / gridSize)*dragStep - (gridSize/2)*dragStep;
+	}
+
+	/*
+	 * Draws the level with the density of final positions on top.
+	 *
+	 * @return	Heatmap image the size of the map.
+	 */
+	public BufferedImage getPositionHeatmap() {
+		int cols = Map.WIDTH/BIN_SIZE;
+		int rows = Map.HEIGHT/BIN_SIZE;
+		int[] bins = new int[cols*rows];
+		int max = 0;
+		for (int i=0; i<finalX.length; i++) {
+			int x = (int) (finalX[i]/BIN_SIZE);
+			int y = (int) (finalY[i]/BIN_SIZE);
+			if (x >= 0 && y >= 0 && x < cols && y < rows) {
+				max = Math.max(max, ++bins[x + y*cols]);
+			}
+		}
+
+		BufferedImage image = new BufferedImage(Map.WIDTH, Map.HEIGHT, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		map.draw(g);
+		for (int i=0; i<bins.length; i++) {
+			if (bins[i] > 0) {
+				g.setColor(getHeatColor(Math.log1p(bins[i])/Math.log1p(max)));
+				g.fillRect((i % cols)*BIN_SIZE, (i / cols)*BIN_SIZE, BIN_SIZE, BIN_SIZE);
+			}
+		}
+		g.dispose();
+		return image;
+	}
+
+	/*
+	 * Draws the number of bounces of every shot, one cell per flick with no drag in the middle.
+	 *
+	 * @param	cellSize	Size in pixels of one shot's cell.
+	 *
+	 * @return	Heatmap image of the flick grid.
+	 */
+	public BufferedImage getBounceHeatmap(int cellSize) {
+		int max = 1;
+		for (int b : bounces) {
+			max = Math.max(max, b);
+		}
+		BufferedImage image = new BufferedImage(gridSize*cellSize, gridSize*cellSize, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		for (int i=0; i<bounces.length; i++) {
+			g.setColor(getHeatColor((double) bounces[i]/max));
+			g.fillRect((i % gridSize)*cellSize, (i / gridSize)*cellSize, cellSize, cellSize);
+		}
+		g.dispose();
+		return image;
+	}
+
+	/*
+	 * Writes one line per shot: mouse drag, final position, bounces and ticks simulated.
+	 */
+	public void writeCSV(File file) throws IOException {
+		PrintWriter out = new PrintWriter(file, "UTF-8");
+		try {
+			out.println("dragX,dragY,finalX,finalY,bounces,ticks");
+			for (int i=0; i<finalX.length; i++) {
+				out.printf("%d,%d,%.3f,%.3f,%d,%d%n", getDragX(i), getDragY(i), finalX[i], finalY[i], bounces[i], ticks[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/*
+	 * @param	value	Heat between 0 and 1.
+	 *
+	 * @return	Semi-transparent colour from blue (cold) to red (hot).
+	 */
+	private static Color getHeatColor(double value) {
+		float hue = (float) ((1-value)*(2.0/3.0));
+		Color c = Color.getHSBColor(hue, 1f, 1f);
+		return new Color(c.getRed(), c.getGreen(), c.getBlue(), 200);
+	}
+
+	public static void main(String[] args) throws IOException {
+		String level = (args.length > 0) ? args[0] : "Assets/level1.csv";
+		Map map = new Map();
+		if (!map.loadLevel(level)) {
+			System.out.println("Failed to load level: " + level);
+			System.exit(1);
+		}
+
+		int r = Map.BALL_RADIUS;
+		Point start = map.getStart();
+		double startX = (args.length > 2) ? Double.parseDouble(args[1]) : start.x*Map.TILESIZE + r;
+		double startY = (args.length > 2) ? Double.parseDouble(args[2]) : start.y*Map.TILESIZE + r;
+		int maxDrag = (args.length > 3) ? Integer.parseInt(args[3]) : 250;
+		int dragStep = (args.length > 4) ? Integer.parseInt(args[4]) : 2;
+		int maxTicks = (args.length > 5) ? Integer.parseInt(args[5]) : 3000;
+		String prefix = (args.length > 6) ? args[6] : "shots";
+
+		ShotExplorer explorer = new ShotExplorer(map, startX, startY, maxDrag, dragStep, maxTicks);
+		long t0 = System.nanoTime();
+		explorer.explore();
+		double seconds = (System.nanoTime()-t0)/1E9;
+		int shots = explorer.gridSize*explorer.gridSize;
+		System.out.printf("Simulated %d shots in %.2f s (%.0f shots/s) on %d cores%n",
+				shots, seconds, shots/seconds, Runtime.getRuntime().availableProcessors());
+
+		ImageIO.write(explorer.getPositionHeatmap(), "png", new File(prefix + "-positions.png"));
+		ImageIO.write(explorer.getBounceHeatmap(Math.max(1, 512/explorer.gridSize)), "png", new File(prefix + "-bounces.png"));
+		explorer.writeCSV(new File(prefix + ".csv"));
+	}
+}
@@ -0,0 +1,77 @@
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/*
+ * TileAtlas holds every tile of a tileset as its own image, indexed by tile id.
+ *
+ * The tileset is sliced once. Each tile is copied into an image compatible with the screen,
+ * so Java2D can keep it in video memory and draw it on the accelerated pipeline.
+ */
+public class TileAtlas {
+
+	private BufferedImage[] tiles;
+	private int tileSize;
+
+	/*
+	 * Constructor for TileAtlas object.
+	 *
+	 * @param	tileset		Tileset image, tiles separated by a 1 pixel border.
+	 * @param	tileSize	Size of a tile in pixels.
+	 */
+	public TileAtlas(BufferedImage tileset, int tileSize) {
+		this.tileSize = tileSize;
+		int tileCols = tileset.getWidth() / (tileSize+1);
+		int tileRows = tileset.getHeight() / (tileSize+1);
+		GraphicsConfiguration gc = getScreenConfiguration();
+		tiles = new BufferedImage[tileCols*tileRows];
+		for (int id=0; id<tiles.length; id++) {
+			int tileX = (id % tileCols) * (tileSize+1) + 1;
+			int tileY = (id / tileCols) * (tileSize+1) + 1;
+			tiles[id] = createImage(gc, tileSize, tileSize, Transparency.TRANSLUCENT);
+			Graphics2D g = tiles[id].createGraphics();
+			g.drawImage(tileset.getSubimage(tileX, tileY, tileSize, tileSize), 0, 0, null);
+			g.dispose();
+		}
+	}
+
+	/*
+	 * @return	Image of the tile, null if the tileset has no such tile.
+	 */
+	public BufferedImage getTile(int id) {
+		if (id < 0 || id >= tiles.length) {
+			return null;
+		}
+		return tiles[id];
+	}
+
+	public int getTileCount() {
+		return tiles.length;
+	}
+
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/*
+	 * @return	Configuration of the default screen, null when running headless.
+	 */
+	public static GraphicsConfiguration getScreenConfiguration() {
+		if (GraphicsEnvironment.isHeadless()) {
+			return null;
+		}
+		return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+	}
+
+	/*
+	 * Creates an image in the screen's native format, or a plain ARGB image when there is no screen.
+	 */
+	public static BufferedImage createImage(GraphicsConfiguration gc, int width, int height, int transparency) {
+		if (gc == null) {
+			return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		}
+		return gc.createCompatibleImage(width, height, transparency);
+	}
+}
@@ -0,0 +1,100 @@
+import java.util.Arrays;
+
+/*
+ * TileQuery holds the result of a broad phase search of the Map.
+ *
+ * Stores the tiles a ball may touch during a time step, ordered by the time the ball's path enters them,
+ * so the narrow phase can stop as soon as a confirmed hit is earlier than the next tile.
+ * Reused between searches so no allocation happens per step.
+ */
+public class TileQuery {
+
+	private int[] tiles;
+	private double[] entryTimes;
+	private int size;
+
+	//Marks tiles already added during the current search.
+	private int[] marks;
+	private int mark;
+	//Scratch stack for searching a SegmentBVH.
+	private int[] stack;
+
+	public TileQuery() {
+		tiles = new int[32];
+		entryTimes = new double[32];
+		marks = new int[0];
+		stack = new int[0];
+		size = 0;
+		mark = 0;
+	}
+
+	/*
+	 * Empties the query in preparation for a new search.
+	 *
+	 * @param	tileCount	Number of tiles in the map being searched.
+	 */
+	void reset(int tileCount) {
+		size = 0;
+		if (marks.length != tileCount) {
+			marks = new int[tileCount];
+			mark = 0;
+		}
+		mark++;
+		if (mark == 0) {
+			//Counter wrapped around, clear old marks.
+			Arrays.fill(marks, 0);
+			mark = 1;
+		}
+	}
+
+	/*
+	 * Adds a tile to the query unless it was already added during this search.
+	 *
+	 * @param	tile		Position of tile in the map.
+	 * @param	entryTime	Time at which the ball may first touch the tile.
+	 */
+	void add(int tile, double entryTime) {
+		if (marks[tile] == mark) {
+			return;
+		}
+		marks[tile] = mark;
+		if (size == tiles.length) {
+			tiles = Arrays.copyOf(tiles, size*2);
+			entryTimes = Arrays.copyOf(entryTimes, size*2);
+		}
+		tiles[size] = tile;
+		entryTimes[size] = entryTime;
+		size++;
+	}
+
+	/*
+	 * @return	Scratch stack of at least the given size, reused between searches.
+	 */
+	int[] getStack(int size) {
+		if (stack.length < size) {
+			stack = new int[size];
+		}
+		return stack;
+	}
+
+	/*
+	 * @return	Number of tiles found.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/*
+	 * @return	Position in the map of the i-th tile found.
+	 */
+	public int getTile(int i) {
+		return tiles[i];
+	}
+
+	/*
+	 * @return	Time (fraction of the ball's velocity) at which the ball may first touch the i-th tile.
+	 */
+	public double getEntryTime(int i) {
+		return entryTimes[i];
+	}
+}
@@ -0,0 +1,337 @@
+import java.awt.Point;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+/*
+ * TileRegistry holds the tile definitions shared by every Map in the process.
+ *
+ * The segment templates of the mapping file are parsed once into primitive arrays indexed by
+ * tile id, and the tileset is decoded and sliced once into a TileAtlas. Both never change after
+ * loading, so any number of maps and threads can use them without locking.
+ * The atlas is only decoded when first asked for, so headless tools parsing levels skip it.
+ * In dev mode the mapping file can be reloaded after an edit (see LevelWatcher), replacing the
+ * shared registry with a new one.
+ */
+public class TileRegistry {
+
+	private static String TILESET_PATH = "Assets/tileset.png";
+	private static String MAPPING_PATH = "Assets/mapping.csv";
+
+	/*
+	 * Segment templates in compressed sparse row layout: the segments of tile id i are
+	 * indices segOffsets[i] to segOffsets[i+1]-1, each stored as x1,y1,x2,y2 relative to the tile.
+	 */
+	private int[] segOffsets;
+	private double[] segments;
+	//Whether the mapping file defines each tile id.
+	private boolean[] defined;
+
+	//Loaded on first use by the class loader, which makes it thread-safe; replaced by reload.
+	private static class Holder {
+		static volatile TileRegistry registry = load(MAPPING_PATH);
+	}
+
+	private static class AtlasHolder {
+		static TileAtlas atlas = loadAtlas(TILESET_PATH, Map.TILESIZE);
+	}
+
+	/*
+	 * @return	The registry shared by the whole process.
+	 */
+	public static TileRegistry get() {
+		return Holder.registry;
+	}
+
+	/*
+	 * Replaces the shared registry with one parsed from a mapping file on disk, after it was edited.
+	 * Levels already built keep the segments of the registry they were built from.
+	 *
+	 * @param	mappingFile		Mapping file to parse.
+	 *
+	 * @return	The new registry.
+	 */
+	public static TileRegistry reload(File mappingFile) throws IOException {
+		BufferedReader CSVFile = new BufferedReader(new FileReader(mappingFile));
+		try {
+			TileRegistry registry = new TileRegistry(CSVFile);
+			Holder.registry = registry;
+			return registry;
+		} catch (NumberFormatException e) {
+			throw new IOException("Bad mapping in " + mappingFile, e);
+		} finally {
+			CSVFile.close();
+		}
+	}
+
+	/*
+	 * Parses the mapping file on the classpath, leaving every tile undefined if it cannot be read.
+	 */
+	private static TileRegistry load(String mappingPath) {
+		try {
+			BufferedReader CSVFile = new BufferedReader(new InputStreamReader(TileRegistry.class.getClassLoader().getResourceAsStream(mappingPath)));
+			try {
+				return new TileRegistry(CSVFile);
+			} finally {
+				CSVFile.close();
+			}
+		} catch (Exception e) {
+			System.out.println("Failed to load mapping");
+			e.printStackTrace();
+			return new TileRegistry(new int[0], new double[0][], 0);
+		}
+	}
+
+	/*
+	 * Constructor for TileRegistry object.
+	 * Parses a mapping file, a line per tile: id, followed by x1,y1,x2,y2 of each of its segments.
+	 *
+	 * @param	CSVFile		Mapping file to parse.
+	 */
+	private TileRegistry(BufferedReader CSVFile) throws IOException {
+		int[] ids = new int[32];
+		double[][] rows = new double[32][];
+		int count = 0;
+		String dataRow = CSVFile.readLine();
+		while (dataRow != null) {
+			if (!dataRow.isEmpty()) {
+				String[] data = dataRow.split(",");
+				double[] item = new double[data.length-1];
+				for (int i=1; i<data.length; i++) {
+					item[i-1] = Integer.parseInt(data[i]);
+				}
+				if (count == ids.length) {
+					ids = Arrays.copyOf(ids, count*2);
+					rows = Arrays.copyOf(rows, count*2);
+				}
+				ids[count] = Integer.parseInt(data[0]);
+				rows[count] = item;
+				count++;
+			}
+			dataRow = CSVFile.readLine();
+		}
+		pack(ids, rows, count);
+	}
+
+	private TileRegistry(int[] ids, double[][] rows, int count) {
+		pack(ids, rows, count);
+	}
+
+	/*
+	 * Helper method for constructors.
+	 * Packs the segments parsed for each tile id.
+	 */
+	private void pack(int[] ids, double[][] rows, int count) {
+		int maxId = -1;
+		for (int i=0; i<count; i++) {
+			maxId = Math.max(maxId, ids[i]);
+		}
+
+		//Later lines for the same id replace earlier ones.
+		defined = new boolean[maxId+1];
+		double[][] byId = new double[maxId+1][];
+		for (int i=0; i<count; i++) {
+			defined[ids[i]] = true;
+			byId[ids[i]] = rows[i];
+		}
+		segOffsets = new int[maxId+2];
+		for (int id=0; id<=maxId; id++) {
+			segOffsets[id+1] = segOffsets[id] + (defined[id] ? byId[id].length/4 : 0);
+		}
+		segments = new double[segOffsets[maxId+1]*4];
+		for (int id=0; id<=maxId; id++) {
+			if (defined[id]) {
+				System.arraycopy(byId[id], 0, segments, segOffsets[id]*4, (byId[id].length/4)*4);
+			}
+		}
+	}
+
+	/*
+	 * Decodes and slices the tileset.
+	 */
+	private static TileAtlas loadAtlas(String tilesetPath, int tileSize) {
+		try {
+			InputStream in = TileRegistry.class.getResourceAsStream(tilesetPath);
+			return new TileAtlas(ImageIO.read(in), tileSize);
+		} catch (IOException e) {
+			System.out.println("Failed to load tileset");
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/*
+	 * @return	Tile images of the tileset, indexed by tile id, decoded on the first call.
+	 */
+	public TileAtlas getAtlas() {
+		return AtlasHolder.atlas;
+	}
+
+	/*
+	 * @return	Whether the mapping file defines the tile id.
+	 */
+	public boolean isDefined(int id) {
+		return id >= 0 && id < defined.length && defined[id];
+	}
+
+	/*
+	 * @return	Number of segments of the tile id.
+	 */
+	public int getSegmentCount(int id) {
+		return segOffsets[id+1] - segOffsets[id];
+	}
+
+	/*
+	 * @return	Index of the first segment of the tile id, for getSegmentX1 etc.
+	 */
+	public int getSegmentStart(int id) {
+		return segOffsets[id];
+	}
+
+	/*
+	 * @return	Index after the last segment of the tile id.
+	 */
+	public int getSegmentEnd(int id) {
+		return segOffsets[id+1];
+	}
+
+	/*
+	 * Builds the collision data of a grid of tiles from their segment templates.
+	 *
+	 * @param	originCol	World column of the first tile.
+	 * @param	originRow	World row of the first tile.
+	 * @param	cols		Number of tile columns.
+	 * @param	rows		Number of tile rows.
+	 * @param	tileSize	Size of a tile in pixels.
+	 * @param	level		Tile id of every tile, row by row.
+	 * @param	start		Starting tile for Ball.
+	 * @param	radius		Radius of the ball the walls are expanded for.
+	 */
+	public LevelGeometry build(int originCol, int originRow, int cols, int rows, int tileSize, int[] level,
+			Point start, double radius) {
+		return build(originCol, originRow, cols, rows, tileSize, level, new double[0], start, radius);
+	}
+
+	/*
+	 * @return	Whether a tile id has the same segments in this registry as in another,
+	 *			so levels built from the other need not stamp it again.
+	 */
+	public boolean sameTemplate(TileRegistry other, int id) {
+		if (!isDefined(id) || !other.isDefined(id)) {
+			return isDefined(id) == other.isDefined(id);
+		}
+		if (getSegmentCount(id) != other.getSegmentCount(id)) {
+			return false;
+		}
+		int start = getSegmentStart(id)*4;
+		int otherStart = other.getSegmentStart(id)*4;
+		for (int i=0; i<getSegmentCount(id)*4; i++) {
+			if (segments[start+i] != other.segments[otherStart+i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Builds the collision data of a grid of tiles and of freeform segments placed anywhere in the level.
+	 *
+	 * @param	freeform	x1,y1,x2,y2 of every freeform segment, in pixels.
+	 * (other parameters as above)
+	 */
+	public LevelGeometry build(int originCol, int originRow, int cols, int rows, int tileSize, int[] level,
+			double[] freeform, Point start, double radius) {
+		return build(originCol, originRow, cols, rows, tileSize, level, freeform, start, radius, null, null);
+	}
+
+	/*
+	 * Builds the collision data of a level again after some of its tiles changed. The segments of
+	 * the other tiles are copied from the old level instead of being stamped from their templates.
+	 *
+	 * @param	old			Level before the change, same grid and ball radius as the new one.
+	 * @param	changed		Whether each tile must be stamped again: its id or its id's template changed.
+	 * @param	level		Tile id of every tile, row by row.
+	 * @param	freeform	x1,y1,x2,y2 of every freeform segment, in pixels.
+	 */
+	public LevelGeometry rebuild(LevelGeometry old, boolean[] changed, int[] level, double[] freeform) {
+		return build(old.getOriginCol(), old.getOriginRow(), old.getCols(), old.getRows(), old.getTileSize(),
+				level, freeform, old.getStart(), old.getRadius(), old, changed);
+	}
+
+	/*
+	 * Helper method for build and rebuild methods.
+	 * Stamps every tile not copied from the old level, if there is one.
+	 */
+	private LevelGeometry build(int originCol, int originRow, int cols, int rows, int tileSize, int[] level,
+			double[] freeform, Point start, double radius, LevelGeometry old, boolean[] changed) {
+		int x, y, seg;
+		int[] tileOffsets = new int[level.length+1];
+
+		//First pass counts the segments of each tile, second pass packs them.
+		for (int i=0; i<level.length; i++) {
+			if (!isDefined(level[i])) {
+				throw new IllegalArgumentException("Unknown tile " + level[i]);
+			}
+			tileOffsets[i+1] = tileOffsets[i] + ((old != null && !changed[i])
+					? old.getSegmentEnd(i) - old.getSegmentStart(i) : getSegmentCount(level[i]));
+		}
+		int tileSegs = tileOffsets[level.length];
+		int segCount = tileSegs + freeform.length/4;
+		double[] segX1 = new double[segCount];
+		double[] segY1 = new double[segCount];
+		double[] segX2 = new double[segCount];
+		double[] segY2 = new double[segCount];
+		for (int i=0; i<level.length; i++) {
+			seg = tileOffsets[i];
+			if (old != null && !changed[i]) {
+				for (int j=old.getSegmentStart(i); j<old.getSegmentEnd(i); j++) {
+					segX1[seg] = old.getSegmentX1(j);
+					segY1[seg] = old.getSegmentY1(j);
+					segX2[seg] = old.getSegmentX2(j);
+					segY2[seg] = old.getSegmentY2(j);
+					seg++;
+				}
+				continue;
+			}
+			x = (originCol + i % cols)*tileSize;
+			y = (originRow + i / cols)*tileSize;
+			for (int j=getSegmentStart(level[i]); j<getSegmentEnd(level[i]); j++) {
+				segX1[seg] = x+getSegmentX1(j);
+				segY1[seg] = y+getSegmentY1(j);
+				segX2[seg] = x+getSegmentX2(j);
+				segY2[seg] = y+getSegmentY2(j);
+				seg++;
+			}
+		}
+		for (seg=tileSegs; seg<segCount; seg++) {
+			segX1[seg] = freeform[(seg-tileSegs)*4];
+			segY1[seg] = freeform[(seg-tileSegs)*4+1];
+			segX2[seg] = freeform[(seg-tileSegs)*4+2];
+			segY2[seg] = freeform[(seg-tileSegs)*4+3];
+		}
+		return new LevelGeometry(originCol, originRow, cols, rows, tileSize, level, tileOffsets,
+				segX1, segY1, segX2, segY2, start, radius);
+	}
+
+	public double getSegmentX1(int seg) {
+		return segments[seg*4];
+	}
+
+	public double getSegmentY1(int seg) {
+		return segments[seg*4+1];
+	}
+
+	public double getSegmentX2(int seg) {
+		return segments[seg*4+2];
+	}
+
+	public double getSegmentY2(int seg) {
+		return segments[seg*4+3];
+	}
+}
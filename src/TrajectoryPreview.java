@@ -0,0 +1,271 @@
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/*
+ * TrajectoryPreview predicts the path of a shot on a background thread, for drawing while aiming.
+ *
+ * Bounces only change the ball's direction, never its speed, so the course of a shot depends
+ * on its direction alone and its speed only decides how far along that course the ball rolls
+ * before friction stops it. The course is traced by a ball of its own at TRACE_SPEED without
+ * friction, and kept: a request in the same direction from the same place (pulling back along
+ * the aim line) reuses all of it, tracing further only if the new shot rolls past its end.
+ * Requests are cheap and can be made on every mouse event. The newest one wins: a trace in
+ * progress stops as soon as a newer request comes in and is picked up again if that one turns
+ * out to follow the same course. Other balls are not part of the prediction, and neither are
+ * moving obstacles: bouncing off one does change the ball's speed, so on a level with obstacles
+ * the premise above no longer holds and the preview only shows the course past the walls.
+ */
+public class TrajectoryPreview {
+
+	//Bounces shown at most.
+	public static int MAX_BOUNCES = 5;
+	//Longest path shown, for shots that would roll on for a long time.
+	public static double MAX_LENGTH = 4000;
+	//Pixels per tick of the ball tracing a course, at most the ball radius to catch every bounce.
+	public static double TRACE_SPEED = 4;
+	//Ticks traced between checks for a newer request.
+	private static int CHECK_TICKS = 64;
+
+	/*
+	 * Shot to predict. Immutable, a new one is made for every request.
+	 */
+	private static class Request {
+		LevelGeometry geometry;
+		double x, y, velX, velY, friction, sleepSpeed;
+		int radius;
+	}
+
+	private ExecutorService worker;
+	//Newest request, and the path predicted for the newest request completed.
+	private volatile Request requested;
+	private volatile double[] path;
+
+	//Course traced last, only touched by the worker thread.
+	private LevelGeometry traceGeometry;
+	private double traceX, traceY, dirX, dirY;
+	private int traceRadius;
+	private Ball tracer;
+	private PhysicsEngine traceEngine;
+	//Start, bounces and end of the course so far as x,y pairs, and the length up to each point.
+	private double[] points;
+	private double[] lengths;
+	private int pointCount;
+	//Whether the course reached its last bounce shown and ends there.
+	private boolean traceEnded;
+
+	public TrajectoryPreview() {
+		worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "trajectory-preview");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/*
+	 * Asks for the path of a shot, replacing any earlier request. Returns at once.
+	 *
+	 * @param	geometry	Collision data of the level, expanded for the ball's radius.
+	 * @param	ball		Ball to shoot, from where it is now.
+	 * @param	velX, velY	Velocity the ball is shot with.
+	 * @param	friction	Rolling friction of the ball's engine.
+	 * @param	sleepSpeed	Sleep speed of the ball's engine.
+	 */
+	public void request(LevelGeometry geometry, Ball ball, double velX, double velY, double friction, double sleepSpeed) {
+		final Request req = new Request();
+		req.geometry = geometry;
+		req.x = ball.getCircle().getCenterX();
+		req.y = ball.getCircle().getCenterY();
+		req.radius = ball.getRadius();
+		req.velX = velX;
+		req.velY = velY;
+		req.friction = friction;
+		req.sleepSpeed = sleepSpeed;
+		requested = req;
+		worker.submit(new Runnable() {
+			public void run() {
+				//Requests overtaken while waiting in the queue are dropped unseen.
+				if (requested == req) {
+					predict(req);
+				}
+			}
+		});
+	}
+
+	/*
+	 * Drops the current request and path.
+	 */
+	public void clear() {
+		requested = null;
+		path = null;
+	}
+
+	/*
+	 * @return	Points of the predicted path as x,y pairs, from the ball through every bounce to
+	 *			where it stops or the path is cut off; null if there is none.
+	 */
+	public double[] getPath() {
+		return path;
+	}
+
+	/*
+	 * Stops the worker thread.
+	 */
+	public void close() {
+		worker.shutdownNow();
+	}
+
+	/*
+	 * Predicts the path of a request on the worker thread, publishing it unless a newer request came in.
+	 */
+	private void predict(Request req) {
+		double speed = Math.sqrt((req.velX*req.velX)+(req.velY*req.velY));
+		if (speed == 0) {
+			publish(req, null);
+			return;
+		}
+		double needed = Math.min(getRollDistance(speed, req.friction, req.sleepSpeed), MAX_LENGTH);
+		if (!follows(req, speed)) {
+			startTrace(req, speed);
+		}
+		if (!trace(req, needed)) {
+			return;
+		}
+
+		//Cut the course where the ball stops.
+		double[] result = new double[2*pointCount];
+		int count = 1;
+		result[0] = points[0];
+		result[1] = points[1];
+		double t;
+		for (int i=1; i<pointCount; i++) {
+			if (lengths[i] >= needed) {
+				t = (needed - lengths[i-1])/(lengths[i] - lengths[i-1]);
+				result[2*count] = points[2*i-2] + t*(points[2*i] - points[2*i-2]);
+				result[2*count+1] = points[2*i-1] + t*(points[2*i+1] - points[2*i-1]);
+				count++;
+				break;
+			}
+			result[2*count] = points[2*i];
+			result[2*count+1] = points[2*i+1];
+			count++;
+		}
+		publish(req, Arrays.copyOf(result, 2*count));
+	}
+
+	private void publish(Request req, double[] result) {
+		if (requested == req) {
+			path = result;
+		}
+	}
+
+	/*
+	 * Helper method for predict method.
+	 * @return	Whether the course traced last is the course of a request.
+	 */
+	private boolean follows(Request req, double speed) {
+		if (tracer == null || req.geometry != traceGeometry || req.radius != traceRadius
+				|| req.x != traceX || req.y != traceY) {
+			return false;
+		}
+		//Same direction, allowing for rounding in the velocity.
+		double cross = (req.velX*dirY) - (req.velY*dirX);
+		double dot = (req.velX*dirX) + (req.velY*dirY);
+		return dot > 0 && Math.abs(cross) <= 1E-12*speed;
+	}
+
+	/*
+	 * Helper method for predict method.
+	 * Starts tracing the course of a request from the ball's position.
+	 */
+	private void startTrace(Request req, double speed) {
+		traceGeometry = req.geometry;
+		traceRadius = req.radius;
+		traceX = req.x;
+		traceY = req.y;
+		dirX = req.velX/speed;
+		dirY = req.velY/speed;
+		tracer = new Ball(new Point((int) traceX, (int) traceY), traceRadius);
+		tracer.setCenter(traceX, traceY);
+		tracer.setVelocity(dirX*TRACE_SPEED, dirY*TRACE_SPEED);
+		traceEngine = new PhysicsEngine(traceGeometry, tracer);
+		traceEngine.setFriction(0, 0);
+		points = new double[2*(MAX_BOUNCES+2)];
+		lengths = new double[MAX_BOUNCES+2];
+		points[0] = traceX;
+		points[1] = traceY;
+		lengths[0] = 0;
+		points[2] = traceX;
+		points[3] = traceY;
+		lengths[1] = 0;
+		pointCount = 2;
+		traceEnded = false;
+	}
+
+	/*
+	 * Helper method for predict method.
+	 * Traces the course further until it is at least as long as needed or has every bounce shown.
+	 * The last point always follows the tracing ball.
+	 *
+	 * @return	false if a newer request came in first, the course traced so far is kept.
+	 */
+	private boolean trace(Request req, double needed) {
+		int ticks = 0;
+		int bounces;
+		double x, y, dX, dY;
+		while (lengths[pointCount-1] < needed && !traceEnded) {
+			if (++ticks % CHECK_TICKS == 0 && requested != req) {
+				return false;
+			}
+			bounces = traceEngine.getBounceCount();
+			traceEngine.step(1.0);
+			if (traceEngine.getBounceCount() != bounces) {
+				//The end point becomes the bounce, and a new end point follows the ball from there.
+				x = traceEngine.getLastBounceX();
+				y = traceEngine.getLastBounceY();
+				dX = x - points[2*pointCount-4];
+				dY = y - points[2*pointCount-3];
+				points[2*pointCount-2] = x;
+				points[2*pointCount-1] = y;
+				lengths[pointCount-1] = lengths[pointCount-2] + Math.sqrt((dX*dX)+(dY*dY));
+				if (pointCount >= points.length/2 - 1) {
+					//Last bounce shown, the course ends there.
+					traceEnded = true;
+					break;
+				}
+				pointCount++;
+			}
+			x = tracer.getCircle().getCenterX();
+			y = tracer.getCircle().getCenterY();
+			dX = x - points[2*pointCount-4];
+			dY = y - points[2*pointCount-3];
+			points[2*pointCount-2] = x;
+			points[2*pointCount-1] = y;
+			lengths[pointCount-1] = lengths[pointCount-2] + Math.sqrt((dX*dX)+(dY*dY));
+		}
+		return true;
+	}
+
+	/*
+	 * How far a ball rolls before friction stops it, tick by tick as PhysicsEngine slows it down.
+	 *
+	 * @return	Distance in pixels, infinite if the ball never stops.
+	 */
+	public static double getRollDistance(double speed, double friction, double sleepSpeed) {
+		if (friction <= 0) {
+			return (speed < sleepSpeed) ? speed : Double.POSITIVE_INFINITY;
+		}
+		double distance = 0;
+		while (true) {
+			distance += speed;
+			speed -= friction;
+			if (speed < sleepSpeed) {
+				return distance;
+			}
+		}
+	}
+}
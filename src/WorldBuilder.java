@@ -0,0 +1,78 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.awt.Point;
+
+/*
+ * WorldBuilder generates large worlds (see WorldFile) offline by tiling a CSV level.
+ *
+ * The level is repeated across the world as is, so its outer walls become a grid of rooms
+ * joined wherever the level has openings in its border.
+ *
+ * Usage: java -Djava.awt.headless=true WorldBuilder out.fgw cols rows [chunk size] [level.csv]
+ * 	e.g. java -Djava.awt.headless=true -cp bin WorldBuilder world.fgw 3000 2000 64 Assets/level1.csv
+ */
+public class WorldBuilder {
+
+	public static int CHUNK_SIZE = 64;
+
+	/*
+	 * Writes a world tiled with a level.
+	 *
+	 * @param	out			File to write the world to.
+	 * @param	cols		Number of tile columns of the world.
+	 * @param	rows		Number of tile rows of the world.
+	 * @param	chunkSize	Width and height of a chunk in tiles.
+	 * @param	levelName	Name of level to tile (CSV file on the classpath)
+	 */
+	public static void build(File out, int cols, int rows, int chunkSize, String levelName) throws IOException {
+		BufferedReader CSVFile = new BufferedReader(new InputStreamReader(
+				WorldBuilder.class.getClassLoader().getResourceAsStream(levelName)));
+		String[] mapData;
+		try {
+			mapData = CSVFile.readLine().split(",");
+		} finally {
+			CSVFile.close();
+		}
+		final int lvlCols = Map.WIDTH / Map.TILESIZE;
+		final int lvlRows = Map.HEIGHT / Map.TILESIZE;
+		final int[] level = new int[lvlCols*lvlRows];
+		for (int i=0; i<mapData.length; i++) {
+			level[i] = Integer.parseInt(mapData[i]);
+			if (!TileRegistry.get().isDefined(level[i])) {
+				throw new IOException("Unknown tile " + level[i] + " in " + levelName);
+			}
+		}
+
+		//Same start as the level in the top left copy.
+		Point start = new Point(lvlCols/2, lvlRows/2);
+		WorldFile.write(out, cols, rows, chunkSize, Map.TILESIZE, start, new WorldFile.TileSource() {
+			public int getTile(int col, int row) {
+				return level[(row % lvlRows)*lvlCols + col % lvlCols];
+			}
+		});
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.out.println("Usage: WorldBuilder out" + WorldFile.EXTENSION + " cols rows [chunk size] [level.csv]");
+			return;
+		}
+		int chunkSize = (args.length > 3) ? Integer.parseInt(args[3]) : CHUNK_SIZE;
+		String levelName = (args.length > 4) ? args[4] : "Assets/level1.csv";
+		File out = new File(args[0]);
+		try {
+			long start = System.nanoTime();
+			build(out, Integer.parseInt(args[1]), Integer.parseInt(args[2]), chunkSize, levelName);
+			WorldFile world = new WorldFile(out);
+			System.out.printf("%s: %dx%d tiles, %dx%d chunks of %d, %d bytes in %.2f s%n", out,
+					world.getCols(), world.getRows(), world.getChunkCols(), world.getChunkRows(),
+					world.getChunkSize(), out.length(), (System.nanoTime() - start) / 1E9);
+			world.close();
+		} catch (IOException e) {
+			System.out.println("Failed to build " + out);
+			e.printStackTrace();
+		}
+	}
+}
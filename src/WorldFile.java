@@ -0,0 +1,184 @@
+import java.awt.Point;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * WorldFile is a world larger than the screen, stored as square chunks of tile ids.
+ *
+ * Chunks are read one at a time with positional reads, so any number of threads can read from
+ * one open file and memory use does not depend on the size of the world.
+ *
+ * Layout (big-endian):
+ * 	int		magic "FGWD"
+ * 	int		format version
+ * 	int		cols, rows, chunkSize, tileSize, startX, startY
+ * 	short[]	tile ids of each chunk, chunks row by row, tiles row by row within a chunk
+ * 			(chunkSize*chunkSize each, tiles past the edge of the world are 0)
+ */
+public class WorldFile {
+
+	public static String EXTENSION = ".fgw";
+	private static int MAGIC = 0x46475744;
+	private static int VERSION = 1;
+	private static int HEADER_SIZE = 4*8;
+
+	/*
+	 * Source of the tile ids of a world being written.
+	 */
+	public interface TileSource {
+		/*
+		 * @return	Tile id at the world column and row.
+		 */
+		public int getTile(int col, int row);
+	}
+
+	private File file;
+	private FileChannel channel;
+	private int cols, rows, chunkSize, tileSize;
+	private int chunkCols, chunkRows;
+	private Point start;
+
+	/*
+	 * Constructor for WorldFile object.
+	 * Opens the world and reads its header.
+	 *
+	 * @param	file	World to open.
+	 */
+	public WorldFile(File file) throws IOException {
+		this.file = file;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		ByteBuffer header = read(0, HEADER_SIZE);
+		if (header.getInt() != MAGIC) {
+			channel.close();
+			throw new IOException("Not a world: " + file);
+		}
+		int version = header.getInt();
+		if (version != VERSION) {
+			channel.close();
+			throw new IOException("Unsupported world version " + version + ": " + file);
+		}
+		cols = header.getInt();
+		rows = header.getInt();
+		chunkSize = header.getInt();
+		tileSize = header.getInt();
+		start = new Point(header.getInt(), header.getInt());
+		chunkCols = (cols + chunkSize - 1) / chunkSize;
+		chunkRows = (rows + chunkSize - 1) / chunkSize;
+		if (cols <= 0 || rows <= 0 || chunkSize <= 0
+				|| channel.size() != HEADER_SIZE + (long) chunkCols*chunkRows*chunkSize*chunkSize*2) {
+			channel.close();
+			throw new IOException("Corrupt world: " + file);
+		}
+	}
+
+	/*
+	 * Reads the tile ids of one chunk. Safe to call from any thread.
+	 *
+	 * @param	chunkX	Chunk column.
+	 * @param	chunkY	Chunk row.
+	 *
+	 * @return	Tile ids of the chunk, row by row.
+	 */
+	public short[] readChunk(int chunkX, int chunkY) throws IOException {
+		int tiles = chunkSize*chunkSize;
+		long position = HEADER_SIZE + ((long) chunkY*chunkCols + chunkX)*tiles*2;
+		short[] chunk = new short[tiles];
+		read(position, tiles*2).asShortBuffer().get(chunk);
+		return chunk;
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("Truncated world: " + file);
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	public int getCols() {
+		return cols;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public int getChunkCols() {
+		return chunkCols;
+	}
+
+	public int getChunkRows() {
+		return chunkRows;
+	}
+
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/*
+	 * @return	Starting tile for Ball, in world tiles.
+	 */
+	public Point getStart() {
+		return new Point(start);
+	}
+
+	/*
+	 * Writes a world chunk by chunk, so worlds of any size can be written with little memory.
+	 *
+	 * @param	file		File to write to, replaced if it exists.
+	 * @param	cols		Number of tile columns.
+	 * @param	rows		Number of tile rows.
+	 * @param	chunkSize	Width and height of a chunk in tiles.
+	 * @param	tileSize	Size of a tile in pixels.
+	 * @param	start		Starting tile for Ball.
+	 * @param	tiles		Tile ids of the world.
+	 */
+	public static void write(File file, int cols, int rows, int chunkSize, int tileSize, Point start,
+			TileSource tiles) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(cols);
+			out.writeInt(rows);
+			out.writeInt(chunkSize);
+			out.writeInt(tileSize);
+			out.writeInt(start.x);
+			out.writeInt(start.y);
+			int chunkCols = (cols + chunkSize - 1) / chunkSize;
+			int chunkRows = (rows + chunkSize - 1) / chunkSize;
+			int col, row;
+			for (int cy=0; cy<chunkRows; cy++) {
+				for (int cx=0; cx<chunkCols; cx++) {
+					for (int y=0; y<chunkSize; y++) {
+						for (int x=0; x<chunkSize; x++) {
+							col = cx*chunkSize + x;
+							row = cy*chunkSize + y;
+							out.writeShort((col < cols && row < rows) ? tiles.getTile(col, row) : 0);
+						}
+					}
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,234 @@
+import java.awt.Point;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/*
+ * WorldStreamer keeps the part of a WorldFile around the ball loaded as a LevelGeometry window.
+ *
+ * The window covers the ball's chunk and the chunks around it. When the ball moves into another
+ * chunk, a new window centered on it is built on a background thread and swapped in once ready;
+ * the old window still reaches at least a chunk past the ball meanwhile. Only if the ball gets
+ * closer to the edge of the window than it could travel in a tick does the game wait for it.
+ * Recently used chunks are cached, up to CHUNK_CACHE, so memory stays flat however big the world.
+ * The distance field of a window is sampled after it is built, so waiting for a window never
+ * waits for its field; until the field is in, the physics does without it.
+ */
+public class WorldStreamer {
+
+	//Chunks kept in memory, least recently used ones are evicted first.
+	public static int CHUNK_CACHE = 64;
+	//Chunks loaded on each side of the ball's chunk.
+	public static int WINDOW_RADIUS = 1;
+
+	private WorldFile world;
+	private double radius;
+	private ExecutorService loader;
+
+	//Only touched by the loader thread.
+	private LinkedHashMap<Long,short[]> chunks;
+
+	//Current window and the chunk it is centered on.
+	private volatile LevelGeometry window;
+	private int windowChunkX, windowChunkY;
+	//Window being built, null if none; only touched by the thread calling follow.
+	private Future<LevelGeometry> pending;
+	private int pendingChunkX, pendingChunkY;
+	//Window submitted last, the only one whose distance field is still worth building.
+	private volatile Future<LevelGeometry> latest;
+	//Why a window could not be built, null if none failed; the same chunk would fail again.
+	private Throwable failure;
+
+	/*
+	 * Constructor for WorldStreamer object.
+	 * Loads the window around the world's starting tile before returning.
+	 *
+	 * @param	world	World to stream.
+	 * @param	radius	Radius of the ball the walls are expanded for.
+	 */
+	public WorldStreamer(WorldFile world, double radius) throws Exception {
+		this.world = world;
+		this.radius = radius;
+		chunks = new LinkedHashMap<Long,short[]>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(java.util.Map.Entry<Long,short[]> eldest) {
+				return size() > CHUNK_CACHE;
+			}
+		};
+		loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "world-loader");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		Point start = world.getStart();
+		windowChunkX = start.x / world.getChunkSize();
+		windowChunkY = start.y / world.getChunkSize();
+		window = submit(windowChunkX, windowChunkY).get();
+	}
+
+	/*
+	 * Keeps the window around the ball. Called before every physics step, from one thread.
+	 *
+	 * @param	ball	Ball the window should surround.
+	 *
+	 * @return	Window that holds every wall the ball can reach in the next step.
+	 * @throws	IllegalStateException	If a window failed to load, now or on an earlier call.
+	 */
+	public LevelGeometry follow(Ball ball) {
+		if (failure != null) {
+			throw new IllegalStateException("Failed to load world chunk", failure);
+		}
+		double x = ball.getCircle().getCenterX();
+		double y = ball.getCircle().getCenterY();
+		int chunkPixels = world.getChunkSize()*world.getTileSize();
+		int chunkX = clamp((int) Math.floor(x / chunkPixels), world.getChunkCols());
+		int chunkY = clamp((int) Math.floor(y / chunkPixels), world.getChunkRows());
+		try {
+			if (pending != null && pending.isDone()) {
+				swap();
+			}
+			if (pending == null && (chunkX != windowChunkX || chunkY != windowChunkY)) {
+				pending = submit(chunkX, chunkY);
+				pendingChunkX = chunkX;
+				pendingChunkY = chunkY;
+			}
+			//Reach of the ball this step: its travel plus the neighbouring tiles the broad phase tests.
+			double reach = Math.abs(ball.getVelocity().getX()) + Math.abs(ball.getVelocity().getY())
+					+ 2*world.getTileSize();
+			if (!covers(window, x, y, reach)) {
+				//Too close to the edge of the window, wait for one centered on the ball.
+				if (pending == null || pendingChunkX != chunkX || pendingChunkY != chunkY) {
+					pending = submit(chunkX, chunkY);
+					pendingChunkX = chunkX;
+					pendingChunkY = chunkY;
+				}
+				swap();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			failure = e.getCause();
+			pending = null;
+			throw new IllegalStateException("Failed to load world chunk", failure);
+		}
+		return window;
+	}
+
+	/*
+	 * Waits for the pending window and makes it current.
+	 */
+	private void swap() throws InterruptedException, ExecutionException {
+		Future<LevelGeometry> next = pending;
+		pending = null;
+		window = next.get();
+		windowChunkX = pendingChunkX;
+		windowChunkY = pendingChunkY;
+	}
+
+	/*
+	 * @return	Whether the window holds everything within reach of (x,y), counting the edges of the world as held.
+	 */
+	private boolean covers(LevelGeometry window, double x, double y, double reach) {
+		int tileSize = world.getTileSize();
+		double left = (window.getOriginCol() == 0) ? Double.NEGATIVE_INFINITY : window.getOriginCol()*tileSize;
+		double top = (window.getOriginRow() == 0) ? Double.NEGATIVE_INFINITY : window.getOriginRow()*tileSize;
+		int endCol = window.getOriginCol() + window.getCols();
+		int endRow = window.getOriginRow() + window.getRows();
+		double right = (endCol >= world.getCols()) ? Double.POSITIVE_INFINITY : endCol*tileSize;
+		double bottom = (endRow >= world.getRows()) ? Double.POSITIVE_INFINITY : endRow*tileSize;
+		return x - reach >= left && x + reach <= right && y - reach >= top && y + reach <= bottom;
+	}
+
+	private static int clamp(int value, int count) {
+		return Math.max(0, Math.min(value, count-1));
+	}
+
+	private Future<LevelGeometry> submit(final int chunkX, final int chunkY) {
+		final Future<LevelGeometry> next = loader.submit(new Callable<LevelGeometry>() {
+			public LevelGeometry call() throws Exception {
+				return buildWindow(chunkX, chunkY);
+			}
+		});
+		latest = next;
+		//Runs right after the window is built, a failed build is reported by follow.
+		loader.submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				if (next == latest) {
+					next.get().buildDistanceField();
+				}
+				return null;
+			}
+		});
+		return next;
+	}
+
+	/*
+	 * Builds the window centered on a chunk, on the loader thread.
+	 */
+	private LevelGeometry buildWindow(int chunkX, int chunkY) throws Exception {
+		int size = world.getChunkSize();
+		int firstX = Math.max(chunkX - WINDOW_RADIUS, 0);
+		int firstY = Math.max(chunkY - WINDOW_RADIUS, 0);
+		int lastX = Math.min(chunkX + WINDOW_RADIUS, world.getChunkCols()-1);
+		int lastY = Math.min(chunkY + WINDOW_RADIUS, world.getChunkRows()-1);
+		int originCol = firstX*size;
+		int originRow = firstY*size;
+		int cols = Math.min((lastX+1)*size, world.getCols()) - originCol;
+		int rows = Math.min((lastY+1)*size, world.getRows()) - originRow;
+		int[] level = new int[cols*rows];
+		for (int cy=firstY; cy<=lastY; cy++) {
+			for (int cx=firstX; cx<=lastX; cx++) {
+				short[] chunk = getChunk(cx, cy);
+				for (int y=0; y<size; y++) {
+					int row = cy*size + y - originRow;
+					if (row >= rows) {
+						break;
+					}
+					for (int x=0; x<size; x++) {
+						int col = cx*size + x - originCol;
+						if (col >= cols) {
+							break;
+						}
+						level[row*cols + col] = chunk[y*size + x] & 0xFFFF;
+					}
+				}
+			}
+		}
+		return TileRegistry.get().build(originCol, originRow, cols, rows, world.getTileSize(), level,
+				world.getStart(), radius);
+	}
+
+	private short[] getChunk(int chunkX, int chunkY) throws Exception {
+		Long key = ((long) chunkY << 32) | chunkX;
+		short[] chunk = chunks.get(key);
+		if (chunk == null) {
+			chunk = world.readChunk(chunkX, chunkY);
+			chunks.put(key, chunk);
+		}
+		return chunk;
+	}
+
+	/*
+	 * @return	The window currently in use.
+	 */
+	public LevelGeometry getWindow() {
+		return window;
+	}
+
+	public WorldFile getWorld() {
+		return world;
+	}
+
+	/*
+	 * Stops the loader thread and closes the world.
+	 */
+	public void close() throws Exception {
+		loader.shutdownNow();
+		world.close();
+	}
+}
@@ -0,0 +1,76 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * VectorImpactKernel computes times of impact for as many segments at once as the CPU's
+ * vector registers hold, using the Vector API.
+ *
+ * Performs the same IEEE operations in the same order as ScalarImpactKernel, so the times are
+ * bit-identical and the engine picks the same hits. Kept in its own source folder because
+ * jdk.incubator.vector needs Java 16 or later; PhysicsEngine loads it when it is available:
+ * javac --add-modules jdk.incubator.vector -cp bin -d bin vector/VectorImpactKernel.java
+ * java --add-modules jdk.incubator.vector -cp bin FlickGolf
+ */
+public class VectorImpactKernel implements ImpactKernel {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	public void computeImpacts(ImpactBatch b, double startX, double startY, double velX, double velY, double radius) {
+		int bound = SPECIES.loopBound(b.count);
+		double a = (velX*velX)+(velY*velY);
+		double r2 = radius*radius;
+		DoubleVector nan = DoubleVector.broadcast(SPECIES, Double.NaN);
+		DoubleVector sX = DoubleVector.broadcast(SPECIES, startX);
+		DoubleVector sY = DoubleVector.broadcast(SPECIES, startY);
+		DoubleVector t, u, d0, d1, fX, fY, bC, det, root;
+		//Everything stays in one method so the JIT keeps the vectors in registers.
+		for (int k=0; k<bound; k+=SPECIES.length()) {
+			DoubleVector x1 = DoubleVector.fromArray(SPECIES, b.x1, k);
+			DoubleVector y1 = DoubleVector.fromArray(SPECIES, b.y1, k);
+			DoubleVector dX2 = DoubleVector.fromArray(SPECIES, b.dx, k);
+			DoubleVector dY2 = DoubleVector.fromArray(SPECIES, b.dy, k);
+			DoubleVector oX = DoubleVector.fromArray(SPECIES, b.ox, k);
+			DoubleVector oY = DoubleVector.fromArray(SPECIES, b.oy, k);
+
+			//Lines on either side of the segment at ball radius distance away.
+			DoubleVector aL = dY2.mul(velX).sub(dX2.mul(velY));
+			VectorMask<Double> moving = aL.compare(VectorOperators.NE, 0);
+			d0 = x1.sub(oX).sub(sX);
+			d1 = y1.sub(oY).sub(sY);
+			t = d0.mul(dY2).sub(d1.mul(dX2)).div(aL);
+			u = d0.mul(velY).sub(d1.mul(velX)).div(aL);
+			nan.blend(t, moving.and(u.compare(VectorOperators.GT, 0)).and(u.compare(VectorOperators.LT, 1))
+					.and(t.compare(VectorOperators.GE, 0)).and(t.compare(VectorOperators.LE, 1)))
+					.intoArray(b.lineMinus, k);
+			d0 = x1.add(oX).sub(sX);
+			d1 = y1.add(oY).sub(sY);
+			t = d0.mul(dY2).sub(d1.mul(dX2)).div(aL);
+			u = d0.mul(velY).sub(d1.mul(velX)).div(aL);
+			nan.blend(t, moving.and(u.compare(VectorOperators.GT, 0)).and(u.compare(VectorOperators.LT, 1))
+					.and(t.compare(VectorOperators.GE, 0)).and(t.compare(VectorOperators.LE, 1)))
+					.intoArray(b.linePlus, k);
+
+			//Circles around both end points.
+			fX = sX.sub(x1);
+			fY = sY.sub(y1);
+			bC = fX.mul(velX).add(fY.mul(velY));
+			det = bC.mul(bC).sub(fX.mul(fX).add(fY.mul(fY)).sub(r2).mul(a));
+			root = det.lanewise(VectorOperators.SQRT);
+			bC = bC.neg();
+			bC.sub(root).div(a).intoArray(b.cap1Near, k);
+			nan.blend(bC.add(root).div(a), det.compare(VectorOperators.GT, 0)).intoArray(b.cap1Far, k);
+
+			fX = sX.sub(DoubleVector.fromArray(SPECIES, b.x2, k));
+			fY = sY.sub(DoubleVector.fromArray(SPECIES, b.y2, k));
+			bC = fX.mul(velX).add(fY.mul(velY));
+			det = bC.mul(bC).sub(fX.mul(fX).add(fY.mul(fY)).sub(r2).mul(a));
+			root = det.lanewise(VectorOperators.SQRT);
+			bC = bC.neg();
+			bC.sub(root).div(a).intoArray(b.cap2Near, k);
+			nan.blend(bC.add(root).div(a), det.compare(VectorOperators.GT, 0)).intoArray(b.cap2Far, k);
+		}
+		ScalarImpactKernel.compute(b, bound, b.count, startX, startY, velX, velY, radius);
+	}
+}